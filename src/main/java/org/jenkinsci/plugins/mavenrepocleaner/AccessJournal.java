@@ -0,0 +1,155 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Append-only journal of the GAV directories builds resolved artifacts from, kept at the root of each repository.
+ * <p>
+ * Builds append one <tt>(time, location)</tt> record per GAV directory they used, locations being relative to the
+ * repository root as in <tt>/org/jenkins-ci/plugins/plugin/4.61</tt>. The cleaner reads it to know when an
+ * artifact was last used without relying on filesystem access times, which <tt>noatime</tt> or
+ * <tt>relatime</tt> mounts don't maintain.
+ * <p>
+ * Writers and readers hold an exclusive lock on the journal while using it, since Maven processes of running
+ * builds can append to it at any time.
+ */
+final class AccessJournal {
+
+    static final String FILE_NAME = ".accessJournal";
+
+    /**
+     * Journals larger than this, and twice as large as needed to hold their live records, are compacted.
+     */
+    private static final long COMPACTION_THRESHOLD = 1024 * 1024;
+
+    private AccessJournal() {
+    }
+
+    /**
+     * Location, as recorded in the journal, of the GAV directory holding an artifact file.
+     *
+     * @return <tt>null</tt> if the artifact isn't in the repository, reactor artifacts for instance
+     */
+    static String location(File repository, File artifact) {
+        String root = repository.getAbsolutePath();
+        String dir = artifact.getAbsoluteFile().getParent();
+        if (dir == null || !dir.startsWith(root) || dir.length() == root.length()) return null;
+        return dir.substring(root.length()).replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Location, as recorded in the journal, of the GAV directory of an artifact known by its coordinates.
+     *
+     * @return <tt>null</tt> if they are incomplete
+     */
+    static String location(String groupId, String artifactId, String version) {
+        if (groupId == null || artifactId == null || version == null) return null;
+        return '/' + groupId.replace('.', '/') + '/' + artifactId + '/' + version;
+    }
+
+    /**
+     * Records that the given GAV directories have been used at <tt>time</tt>.
+     */
+    static void append(File repository, long time, Collection<String> locations) throws IOException {
+        if (locations.isEmpty()) return;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        for (String location : locations) {
+            out.writeLong(time);
+            out.writeUTF(location);
+        }
+        out.flush();
+
+        try (FileChannel channel = FileChannel.open(new File(repository, FILE_NAME).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+             FileLock lock = channel.lock()) {
+            ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Reads the last use time, in milliseconds, of every GAV directory recorded in the journal.
+     *
+     * @return an empty map if there is no journal yet
+     */
+    static Map<String, Long> read(File repository) throws IOException {
+        try (FileChannel channel = FileChannel.open(new File(repository, FILE_NAME).toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileLock lock = channel.lock()) {
+            return read(channel);
+        } catch (NoSuchFileException e) {
+            return new HashMap<String, Long>();
+        }
+    }
+
+    /**
+     * Drops the records of GAV directories that no longer exist, once the journal has grown large enough to be
+     * worth it. Rewritten in place, so that concurrent appenders keep writing to the same file.
+     */
+    static void compact(File repository) throws IOException {
+        File file = new File(repository, FILE_NAME);
+        if (file.length() < COMPACTION_THRESHOLD) return;
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileLock lock = channel.lock()) {
+            Map<String, Long> lastUse = read(channel);
+            for (Iterator<String> it = lastUse.keySet().iterator(); it.hasNext(); ) {
+                if (!new File(repository, it.next()).isDirectory()) it.remove();
+            }
+
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buffer);
+            for (Map.Entry<String, Long> entry : lastUse.entrySet()) {
+                out.writeLong(entry.getValue());
+                out.writeUTF(entry.getKey());
+            }
+            out.flush();
+            if (buffer.size() * 2 > channel.size()) return;
+
+            ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+            channel.truncate(0);
+            while (bytes.hasRemaining()) {
+                channel.write(bytes, channel.size());
+            }
+            channel.force(false);
+        }
+    }
+
+    private static Map<String, Long> read(FileChannel channel) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate((int) channel.size());
+        while (bytes.hasRemaining() && channel.read(bytes, bytes.position()) >= 0) {
+            // keep reading
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.array(), 0, bytes.position()));
+        Map<String, Long> lastUse = new HashMap<String, Long>();
+        try {
+            while (in.available() > 0) {
+                long time = in.readLong();
+                String location = in.readUTF();
+                Long previous = lastUse.get(location);
+                if (previous == null || previous < time) lastUse.put(location, time);
+            }
+        } catch (EOFException e) {
+            // truncated record of an interrupted append, everything before it is fine
+        }
+        return lastUse;
+    }
+}
@@ -0,0 +1,106 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import hudson.Extension;
+import hudson.maven.MavenBuildProxy;
+import hudson.maven.MavenModule;
+import hudson.maven.MavenReporter;
+import hudson.maven.MavenReporterDescriptor;
+import hudson.maven.MojoInfo;
+import hudson.model.BuildListener;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Records in the {@link AccessJournal} of the local repository the GAVs each module of a Maven build resolved:
+ * its dependencies, the plugins it ran, its build extensions and its parent POMs.
+ * <p>
+ * What the resolver fetches on the way without it showing in the project, the parent POMs of dependencies and
+ * the BOMs they import, isn't recorded. The cleaner never takes what the journal doesn't know of for unused, see
+ * {@link RepositoryCleaner#setAccessJournal}.
+ * <p>
+ * Automatically added to the modules of Maven jobs whose {@link MavenRepoCleanerPostBuildTask} tracks artifact
+ * usage with the journal.
+ */
+public class AccessJournalReporter extends MavenReporter {
+
+    private transient Set<String> locations;
+
+    @Override
+    public boolean preExecute(MavenBuildProxy build, MavenProject pom, MojoInfo mojo, BuildListener listener) throws InterruptedException, IOException {
+        File repository = localRepository(pom);
+        if (repository != null) {
+            record(repository, mojo.mojoExecution.getMojoDescriptor().getPluginDescriptor().getArtifacts());
+        }
+        return true;
+    }
+
+    @Override
+    public boolean postBuild(MavenBuildProxy build, MavenProject pom, BuildListener listener) throws InterruptedException, IOException {
+        File repository = localRepository(pom);
+        if (repository == null) return true;
+
+        record(repository, pom.getArtifacts());
+        for (MavenProject parent = pom.getParent(); parent != null; parent = parent.getParent()) {
+            if (parent.getFile() != null) record(repository, parent.getFile());
+        }
+        if (pom.getBuildExtensions() != null) {
+            for (org.apache.maven.model.Extension extension : pom.getBuildExtensions()) {
+                record(AccessJournal.location(extension.getGroupId(), extension.getArtifactId(),
+                    extension.getVersion()));
+            }
+        }
+        if (locations != null) {
+            AccessJournal.append(repository, System.currentTimeMillis(), locations);
+            locations = null;
+        }
+        return true;
+    }
+
+    private void record(File repository, Collection<Artifact> artifacts) {
+        if (artifacts == null) return;
+        for (Artifact artifact : artifacts) {
+            if (artifact.getFile() != null) record(repository, artifact.getFile());
+        }
+    }
+
+    private void record(File repository, File file) {
+        record(AccessJournal.location(repository, file));
+    }
+
+    private void record(String location) {
+        if (location == null) return;
+        if (locations == null) locations = new HashSet<String>();
+        locations.add(location);
+    }
+
+    private static File localRepository(MavenProject pom) {
+        if (pom.getProjectBuildingRequest() == null) return null;
+        ArtifactRepository repository = pom.getProjectBuildingRequest().getLocalRepository();
+        return repository == null ? null : new File(repository.getBasedir());
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends MavenReporterDescriptor {
+
+        @Override
+        public String getDisplayName() {
+            return "Record Maven repository usage";
+        }
+
+        @Override
+        public MavenReporter newAutoInstance(MavenModule module) {
+            MavenRepoCleanerPostBuildTask task =
+                module.getParent().getPublishersList().get(MavenRepoCleanerPostBuildTask.class);
+            return task != null && task.isAccessJournal() ? new AccessJournalReporter() : null;
+        }
+    }
+
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,240 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.UserDefinedFileAttributeView;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Replaces identical release artifacts of the repositories of one node with copy-on-write clones of a single copy,
+ * or with hardlinks to it when allowed.
+ * <p>
+ * Artifacts are keyed by their size and the SHA-1 the repository already stores next to them, computed instead
+ * when there is no usable <tt>.sha1</tt> file. The first copy of each content is verified against its key before
+ * other copies get linked to it, so a stale or wrong checksum never spreads.
+ * <p>
+ * Clones, made with <tt>cp --reflink=always</tt> on Linux filesystems that support it (Btrfs, XFS, ZFS...), share
+ * their blocks until either copy is written to, so repositories stay as isolated as with plain copies. Each keeps
+ * its own timestamps, so expiring by access time works as before.
+ * <p>
+ * Hardlinks are only used when clones can't be, and only when explicitly allowed: a hardlinked file is the same
+ * file in every repository, and resolvers before Maven 3.9 install, deploy and download into existing files in
+ * place, writing through the link into the repositories of every other job. They are only safe when every build
+ * of the node uses Maven 3.9 or later, and never writes into its repository by other means. Links share their
+ * access time, which makes an artifact used by any job count as used for all of them.
+ * <p>
+ * Only release versions are deduplicated, snapshots are rewritten all the time. Deleting a deduplicated artifact
+ * only removes that repository's copy, so expiration, quotas and the reaper work the same.
+ */
+final class ArtifactDeduplicator {
+
+    private static final String TMP_SUFFIX = ".maven-repo-cleaner-link";
+
+    /**
+     * Extended attribute recording the key of a clone.
+     */
+    private static final String CLONE_ATTRIBUTE = "maven-repo-cleaner.clone";
+
+    /**
+     * First verified copy of each content, by size and SHA-1.
+     */
+    private final Map<String, Path> canonical = new HashMap<String, Path>();
+
+    private long visited;
+    private long linked;
+    private long bytes;
+    private final IoThrottle throttle;
+    private final boolean hardlinks;
+    /** Whether clones are still worth trying, turned off by the first failure. */
+    private boolean clones = System.getProperty("os.name", "").startsWith("Linux");
+
+    /**
+     * @param hardlinks whether duplicates get hardlinked when they can't be cloned, only safe when all the builds
+     *                  of the node use Maven 3.9 or later
+     */
+    ArtifactDeduplicator(IoThrottle throttle, boolean hardlinks) {
+        this.throttle = throttle;
+        this.hardlinks = hardlinks;
+    }
+
+    /**
+     * Links the duplicate artifacts of the given repositories, which have to be on the same node.
+     */
+    void deduplicate(Collection<File> repositories) throws IOException, InterruptedException {
+        for (File repository : repositories) {
+            if (Thread.interrupted()) throw new InterruptedException();
+            if (!clones && !hardlinks) return;
+            if (!repository.isDirectory()) continue;
+            Files.walkFileTree(repository.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    throttle.stat(1);
+                    return dir.getFileName().toString().endsWith("-SNAPSHOT")
+                        ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    throttle.stat(1);
+                    visited++;
+                    if (attrs.isRegularFile() && isArtifact(file.getFileName().toString())) {
+                        deduplicate(file, attrs);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+    }
+
+    private static boolean isArtifact(String name) {
+        return !NioRepositoryWalker.METADATA.contains(name) && !name.startsWith(".")
+            && !name.endsWith(".sha1") && !name.endsWith(".md5") && !name.endsWith(".lastUpdated")
+            && !name.endsWith(".repositories") && !name.endsWith(TMP_SUFFIX);
+    }
+
+    private void deduplicate(Path file, BasicFileAttributes attrs) throws InterruptedIOException {
+        try {
+            String sha1 = ChecksumVerifier.stored(file, ChecksumVerifier.SHA1);
+            boolean verified = sha1 == null;
+            if (verified) sha1 = sha1(file);
+            String key = attrs.size() + ":" + sha1;
+
+            Path original = canonical.get(key);
+            if (original == null) {
+                if (verified || sha1.equals(sha1(file))) canonical.put(key, file);
+                return;
+            }
+            BasicFileAttributes originalAttrs = Files.readAttributes(original, BasicFileAttributes.class);
+            if (attrs.fileKey() != null && attrs.fileKey().equals(originalAttrs.fileKey())) return; // already linked
+            if (key.equals(cloneOf(file))) return; // already cloned
+            if (originalAttrs.size() != attrs.size()) {
+                // changed since it was verified
+                canonical.remove(key);
+                return;
+            }
+
+            Path tmp = file.resolveSibling(file.getFileName() + TMP_SUFFIX);
+            Files.deleteIfExists(tmp);
+            if (clones && clone(original, tmp)) {
+                markClone(tmp, key);
+                // the clone of another repository's copy, but this repository's artifact as far as its use goes
+                Files.getFileAttributeView(tmp, BasicFileAttributeView.class)
+                    .setTimes(attrs.lastModifiedTime(), attrs.lastAccessTime(), null);
+            } else if (hardlinks) {
+                Files.createLink(tmp, original);
+            } else {
+                return;
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+            linked++;
+            bytes += attrs.size();
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            // different filesystem, no hardlink support, or the file went away
+            LOGGER.log(Level.FINE, "Failed to deduplicate " + file, e);
+        }
+    }
+
+    /**
+     * Clones a file, sharing its blocks.
+     *
+     * @return whether the filesystem could, clones are no longer tried otherwise
+     */
+    private boolean clone(Path original, Path clone) throws IOException {
+        Process cp = new ProcessBuilder("cp", "--reflink=always", original.toString(), clone.toString())
+            .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+        try {
+            if (cp.waitFor() == 0) return true;
+        } catch (InterruptedException e) {
+            cp.destroy();
+            Files.deleteIfExists(clone);
+            throw new InterruptedIOException("Interrupted while cloning " + original);
+        }
+        Files.deleteIfExists(clone);
+        LOGGER.fine("No copy-on-write clones of " + original + ", falling back to " + (hardlinks ? "hardlinks" : "nothing"));
+        clones = false;
+        return false;
+    }
+
+    /**
+     * @return the key a file was cloned with, <tt>null</tt> if it wasn't or extended attributes aren't supported
+     */
+    private static String cloneOf(Path file) {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+        if (view == null) return null;
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(view.size(CLONE_ATTRIBUTE));
+            view.read(CLONE_ATTRIBUTE, buffer);
+            buffer.flip();
+            return StandardCharsets.UTF_8.decode(buffer).toString();
+        } catch (IOException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Records the key a file was cloned with, so that the next pass doesn't clone it again. Without extended
+     * attributes, it is.
+     */
+    private static void markClone(Path file, String key) {
+        UserDefinedFileAttributeView view = Files.getFileAttributeView(file, UserDefinedFileAttributeView.class);
+        if (view == null) return;
+        try {
+            view.write(CLONE_ATTRIBUTE, StandardCharsets.UTF_8.encode(key));
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.log(Level.FINE, "Failed to mark " + file + " as cloned", e);
+        }
+    }
+
+    private static String sha1(Path file) throws IOException {
+        return ChecksumVerifier.digest(file, ChecksumVerifier.SHA1);
+    }
+
+    /**
+     * Number of files visited.
+     */
+    long getVisited() {
+        return visited;
+    }
+
+    /**
+     * Number of artifacts replaced with a clone or a link.
+     */
+    long getLinked() {
+        return linked;
+    }
+
+    /**
+     * Bytes no longer stored twice.
+     */
+    long getBytes() {
+        return bytes;
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ArtifactDeduplicator.class.getName());
+}
@@ -0,0 +1,114 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Per GAV directory locks, compatible with the <tt>file-gav</tt> named locks of Maven resolver
+ * (<tt>-Daether.syncContext.named.factory=file-lock -Daether.syncContext.named.nameMapper=file-gav</tt>).
+ * <p>
+ * Resolver locks <tt>artifact~groupId~artifactId~version.lock</tt>, under the <tt>.locks</tt> directory of the
+ * repository, while it resolves, downloads or installs the artifacts of that version. The cleaner takes the same
+ * lock exclusively, without waiting, before removing anything from a version directory, and leaves the directory
+ * alone when a build holds it. Lock files are created on demand and deleted when released, as resolver does.
+ */
+final class ArtifactLocks {
+
+    /**
+     * Directory, at the root of a repository, holding the lock files.
+     */
+    static final String LOCKS = ".locks";
+
+    private ArtifactLocks() {
+    }
+
+    /**
+     * Locks a GAV directory unless someone else holds it.
+     *
+     * @param repository root of the repository
+     * @param location   location of the GAV directory relative to the repository root, <tt>/org/acme/lib/1.0</tt>
+     * @return the lock to close once done, <tt>null</tt> when it is held elsewhere
+     */
+    static Lock tryLock(Path repository, String location) throws IOException {
+        String name = name(location);
+        if (name == null) return Lock.NONE;
+
+        Path file = repository.resolve(LOCKS).resolve(name);
+        if (!Files.isDirectory(file.getParent())) {
+            // repositories expire by the modification time of their root, which only builds are to change
+            FileTime modified = Files.getLastModifiedTime(repository);
+            Files.createDirectories(file.getParent());
+            Files.setLastModifiedTime(repository, modified);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        FileLock lock = null;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // held by another clean up of this JVM
+        } finally {
+            if (lock == null) channel.close();
+        }
+        return lock == null ? null : new Lock(file, channel);
+    }
+
+    /**
+     * Name of the lock file of a GAV directory.
+     *
+     * @return <tt>null</tt> if the location is too short to be one
+     */
+    static String name(String location) {
+        int version = location.lastIndexOf('/');
+        int artifactId = version <= 0 ? -1 : location.lastIndexOf('/', version - 1);
+        if (artifactId <= 0) return null;
+        String groupId = location.substring(location.charAt(0) == '/' ? 1 : 0, artifactId).replace('/', '.');
+        return "artifact~" + groupId + '~' + location.substring(artifactId + 1, version) + '~'
+            + location.substring(version + 1) + ".lock";
+    }
+
+    /**
+     * A held lock.
+     */
+    static final class Lock implements Closeable {
+        /**
+         * Nothing to lock.
+         */
+        static final Lock NONE = new Lock(null, null);
+
+        private final Path file;
+        private final FileChannel channel;
+
+        private Lock(Path file, FileChannel channel) {
+            this.file = file;
+            this.channel = channel;
+        }
+
+        public void close() {
+            if (channel == null) return;
+            try {
+                // deleted while still held, so that nobody locks a file about to vanish
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // open elsewhere on Windows, left for whoever holds it
+                LOGGER.log(Level.FINE, "Failed to delete " + file, e);
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Failed to release " + file, e);
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ArtifactLocks.class.getName());
+}
@@ -0,0 +1,65 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * How far a clean up run went, persisted next to what it cleans so that the same run can pick up from there
+ * after an agent disconnection or a controller restart.
+ * <p>
+ * A checkpoint is a run, identified by its reference time, and a cursor: the name of the last entry done, entries
+ * being processed in name order. It only applies to the run that wrote it, a new run starts over.
+ */
+final class Checkpoint {
+
+    /**
+     * Minimum time between two saves of the progress of a run, in milliseconds. Can be changed with
+     * <tt>-Dorg.jenkinsci.plugins.mavenrepocleaner.Checkpoint.interval=seconds</tt> on the agent.
+     */
+    static long INTERVAL = TimeUnit.SECONDS.toMillis(Long.getLong(Checkpoint.class.getName() + ".interval", 30));
+
+    private Checkpoint() {
+    }
+
+    /**
+     * @return the cursor saved by the given run, <tt>null</tt> if there is none
+     */
+    static String load(Path file, long run) {
+        try {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            if (lines.size() < 2 || !lines.get(0).equals(Long.toString(run))) return null;
+            return lines.get(1);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Failed to read " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Records that a run is done up to the given cursor, included.
+     */
+    static void save(Path file, long run, String cursor) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, (run + "\n" + cursor + "\n").getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Forgets the progress of a run once it is complete.
+     */
+    static void clear(Path file) throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(Checkpoint.class.getName());
+}
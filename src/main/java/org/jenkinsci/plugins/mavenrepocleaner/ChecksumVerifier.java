@@ -0,0 +1,254 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/**
+ * Finds the artifacts a scan keeps that no longer match their <tt>.sha1</tt> or <tt>.md5</tt>, truncated or
+ * corrupted by a killed build, and evicts them with their checksums so that the next build downloads them again.
+ * <p>
+ * Scans queue the artifacts they keep, and those are hashed once the scan is over, on several threads, each reading
+ * through a direct buffer of its own. An artifact is only evicted when none of its checksums match, so a wrong checksum next to
+ * a good artifact doesn't get it evicted again and again. The modification time of artifacts found intact is
+ * recorded in the {@link ScanIndex}, and they are only hashed again once they change.
+ */
+final class ChecksumVerifier {
+
+    static final String SHA1 = "SHA-1";
+    static final String MD5 = "MD5";
+
+    /**
+     * Files are read this much at a time.
+     */
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Reused by the hashing threads, rather than mapping files: mapped files are only unmapped once collected,
+     * and can't be deleted on Windows until then.
+     */
+    private static final ThreadLocal<ByteBuffer> BUFFER =
+        ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private final RepositoryCleaner cleaner;
+    private final List<Artifact> queue = new ArrayList<Artifact>();
+
+    ChecksumVerifier(RepositoryCleaner cleaner) {
+        this.cleaner = cleaner;
+    }
+
+    /**
+     * Queues an artifact a scan keeps, unless it has been verified in its current state.
+     *
+     * @param files    entries of the directory of the artifact, as collected by the scan
+     * @param previous what the previous scan recorded about the directory, if anything
+     * @return what the index records about the verification of the artifact for now
+     */
+    long check(Path dir, String location, String name, BasicFileAttributes attrs,
+               Map<String, BasicFileAttributes> files, ScanIndex.Entry previous) {
+        if (files.get(name + ".sha1") == null && files.get(name + ".md5") == null) {
+            return ScanIndex.Entry.NO_CHECKSUM;
+        }
+        long modified = attrs.lastModifiedTime().toMillis();
+        if (previous != null && previous.verified(name, attrs.size()) == modified) {
+            return modified;
+        }
+        synchronized (queue) {
+            queue.add(new Artifact(dir, location, name, attrs.size(), modified));
+        }
+        return ScanIndex.Entry.UNVERIFIED;
+    }
+
+    /**
+     * Hashes the queued artifacts, and evicts the corrupted ones.
+     *
+     * @param threads number of artifacts hashed at the same time
+     */
+    void verify(CleanupResult result, int threads) throws IOException {
+        List<Artifact> artifacts;
+        synchronized (queue) {
+            artifacts = new ArrayList<Artifact>(queue);
+            queue.clear();
+        }
+        if (artifacts.isEmpty()) return;
+
+        List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>(artifacts.size());
+        for (final Artifact artifact : artifacts) {
+            tasks.add(() -> intact(artifact.dir.resolve(artifact.name)));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, artifacts.size())),
+            new NamingThreadFactory(new DaemonThreadFactory(), "maven-repo-cleaner-verify"));
+        try {
+            List<Future<Boolean>> verdicts = executor.invokeAll(tasks);
+            for (int i = 0; i < artifacts.size(); i++) {
+                Artifact artifact = artifacts.get(i);
+                Boolean intact;
+                try {
+                    intact = verdicts.get(i).get();
+                } catch (ExecutionException e) {
+                    // unreadable or gone, nothing to conclude
+                    if (!(e.getCause() instanceof NoSuchFileException)) result.error();
+                    continue;
+                }
+                if (intact) {
+                    ScanIndex.Entry entry = cleaner.getNextIndex() == null ? null
+                        : cleaner.getNextIndex().get(artifact.location);
+                    if (entry != null) entry.setVerified(artifact.name, artifact.modified);
+                } else {
+                    evict(artifact, result);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while verifying checksums");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void evict(Artifact artifact, CleanupResult result) throws IOException {
+        ArtifactLocks.Lock lock = cleaner.isArtifactLocking()
+            ? ArtifactLocks.tryLock(cleaner.getRepository(), artifact.location) : ArtifactLocks.Lock.NONE;
+        // being downloaded again, most likely
+        if (lock == null) return;
+        try {
+            IoThrottle throttle = cleaner.getThrottle();
+            long deleting = System.nanoTime();
+            Path file = artifact.dir.resolve(artifact.name);
+            if (!throttle.delete(file, artifact.size)) {
+                result.deleted(System.nanoTime() - deleting);
+                result.error();
+                return;
+            }
+            long size = artifact.size;
+            for (String checksum : new String[] {artifact.name + ".md5", artifact.name + ".sha1"}) {
+                Path path = artifact.dir.resolve(checksum);
+                try {
+                    long checksumSize = Files.size(path);
+                    if (throttle.delete(path, checksumSize)) size += checksumSize;
+                } catch (InterruptedIOException e) {
+                    throw e;
+                } catch (IOException e) {
+                    // no such checksum
+                }
+            }
+            NioRepositoryWalker.prune(artifact.dir, cleaner.getRepository(), throttle);
+            result.deleted(System.nanoTime() - deleting);
+            result.removed(GavResolver.groupIdOf(artifact.location), artifact.location + '/' + artifact.name, size);
+            result.corrupt();
+            result.retained(cleaner.getRoot(), -artifact.size);
+            if (cleaner.getNextIndex() != null) {
+                // looked at again next time
+                cleaner.getNextIndex().remove(artifact.location);
+            }
+            LOGGER.fine("Evicted corrupted " + file);
+        } finally {
+            lock.close();
+        }
+    }
+
+    /**
+     * Whether a file matches one of the checksums stored next to it, or has none.
+     */
+    static boolean intact(Path file) throws IOException {
+        boolean checked = false;
+        for (String algorithm : new String[] {SHA1, MD5}) {
+            String stored = stored(file, algorithm);
+            if (stored == null) continue;
+            if (stored.equals(digest(file, algorithm))) return true;
+            checked = true;
+        }
+        return !checked;
+    }
+
+    /**
+     * Reads the checksum Maven stored next to a file.
+     *
+     * @param algorithm {@link #SHA1} or {@link #MD5}
+     * @return the lowercase hex digest, <tt>null</tt> if there is no usable checksum file
+     */
+    static String stored(Path file, String algorithm) {
+        boolean sha1 = SHA1.equals(algorithm);
+        int length = sha1 ? 40 : 32;
+        try {
+            String content = new String(Files.readAllBytes(file.resolveSibling(file.getFileName()
+                + (sha1 ? ".sha1" : ".md5"))), StandardCharsets.US_ASCII).trim();
+            // some repositories append the file name after the digest
+            int end = 0;
+            while (end < content.length() && Character.digit(content.charAt(end), 16) >= 0) end++;
+            return end == length ? content.substring(0, length).toLowerCase() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Hashes a file, reading it through the direct buffer of the thread.
+     *
+     * @return the lowercase hex digest
+     */
+    static String digest(Path file, String algorithm) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        ByteBuffer buffer = BUFFER.get();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        StringBuilder hex = new StringBuilder(digest.getDigestLength() * 2);
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * An artifact waiting to be verified.
+     */
+    private static final class Artifact {
+        final Path dir;
+        final String location;
+        final String name;
+        final long size;
+        final long modified;
+
+        Artifact(Path dir, String location, String name, long size, long modified) {
+            this.dir = dir;
+            this.location = location;
+            this.name = name;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ChecksumVerifier.class.getName());
+}
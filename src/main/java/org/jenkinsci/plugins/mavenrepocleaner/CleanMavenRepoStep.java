@@ -0,0 +1,364 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.model.Computer;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.jenkinsci.plugins.workflow.steps.BodyExecution;
+import org.jenkinsci.plugins.workflow.steps.BodyExecutionCallback;
+import org.jenkinsci.plugins.workflow.steps.Step;
+import org.jenkinsci.plugins.workflow.steps.StepContext;
+import org.jenkinsci.plugins.workflow.steps.StepDescriptor;
+import org.jenkinsci.plugins.workflow.steps.StepExecution;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Pipeline counterpart of {@link MavenRepoCleanerPostBuildTask}: removes the artifacts of a workspace repository
+ * unused since the build started, or since a given time, and returns a summary of what was removed.
+ * <p>
+ * Given a block and <tt>async: true</tt>, the clean up runs on the agent while the block does, and is joined once
+ * the block is over, so that it stays off the critical path of the pipeline:
+ * <pre>
+ * node {
+ *     cleanMavenRepo(async: true) {
+ *         stage('Test') { ... }
+ *     }
+ * }
+ * </pre>
+ * Otherwise the block, if any, only starts once the clean up is done, and the step returns when it is. Either way,
+ * the pipeline never holds a thread of the controller while waiting for the agent.
+ */
+public class CleanMavenRepoStep extends Step {
+
+    private String repository = ".repository";
+    private long since;
+    private int quota;
+    private int snapshotBuilds;
+    private boolean verifyChecksums;
+    private boolean async;
+
+    @DataBoundConstructor
+    public CleanMavenRepoStep() {
+    }
+
+    public String getRepository() {
+        return repository;
+    }
+
+    /**
+     * Location of the repository relative to the workspace, <tt>.repository</tt> by default.
+     */
+    @DataBoundSetter
+    public void setRepository(String repository) {
+        this.repository = repository == null || repository.trim().isEmpty() ? ".repository" : repository.trim();
+    }
+
+    public long getSince() {
+        return since;
+    }
+
+    /**
+     * Time, in milliseconds since the epoch, artifacts unused since are removed. <tt>0</tt>, the default, for the
+     * start of the build.
+     */
+    @DataBoundSetter
+    public void setSince(long since) {
+        this.since = Math.max(0, since);
+    }
+
+    public int getQuota() {
+        return quota;
+    }
+
+    /**
+     * @see MavenRepoCleanerPostBuildTask#setQuota(int)
+     */
+    @DataBoundSetter
+    public void setQuota(int quota) {
+        this.quota = Math.max(0, quota);
+    }
+
+    public int getSnapshotBuilds() {
+        return snapshotBuilds;
+    }
+
+    /**
+     * @see MavenRepoCleanerPostBuildTask#setSnapshotBuilds(int)
+     */
+    @DataBoundSetter
+    public void setSnapshotBuilds(int snapshotBuilds) {
+        this.snapshotBuilds = Math.max(0, snapshotBuilds);
+    }
+
+    public boolean isVerifyChecksums() {
+        return verifyChecksums;
+    }
+
+    /**
+     * @see MavenRepoCleanerPostBuildTask#setVerifyChecksums(boolean)
+     */
+    @DataBoundSetter
+    public void setVerifyChecksums(boolean verifyChecksums) {
+        this.verifyChecksums = verifyChecksums;
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * Runs the clean up alongside the block given to the step, rather than before it. The step fails without a
+     * block.
+     */
+    @DataBoundSetter
+    public void setAsync(boolean async) {
+        this.async = async;
+    }
+
+    @Override
+    public StepExecution start(StepContext context) throws Exception {
+        return new Execution(this, context);
+    }
+
+    /**
+     * What the step returns.
+     */
+    static Map<String, Object> summary(CleanupResult result) {
+        Map<String, Object> summary = new LinkedHashMap<String, Object>();
+        summary.put("artifacts", result.getArtifacts());
+        summary.put("bytes", result.getBytes());
+        summary.put("filesVisited", result.getFilesVisited());
+        summary.put("corrupt", result.getCorrupt());
+        summary.put("errors", result.getErrors());
+        summary.put("scanDuration", result.getScanDuration());
+        summary.put("deleteDuration", result.getDeleteDuration());
+        return summary;
+    }
+
+    /**
+     * Waits for the agent on a thread of its own, then completes the step.
+     */
+    static class Execution extends StepExecution {
+
+        private final String repository;
+        private final long since;
+        private final long quota;
+        private final int snapshotBuilds;
+        private final boolean verifyChecksums;
+        private final boolean async;
+        private volatile BodyExecution body;
+        private transient volatile Future<?> cleanup;
+
+        Execution(CleanMavenRepoStep step, StepContext context) {
+            super(context);
+            this.repository = step.repository;
+            this.since = step.since;
+            this.quota = step.quota * MavenRepoCleanerPostBuildTask.GIGABYTE;
+            this.snapshotBuilds = step.snapshotBuilds;
+            this.verifyChecksums = step.verifyChecksums;
+            this.async = step.async;
+        }
+
+        @Override
+        public boolean start() throws Exception {
+            final StepContext context = getContext();
+            if (async && !context.hasBody()) {
+                // there would be nothing to run in the meantime
+                throw new AbortException("async requires a block");
+            }
+            FilePath workspace = context.get(FilePath.class);
+            Run<?, ?> run = context.get(Run.class);
+            Computer computer = context.get(Computer.class);
+            final TaskListener listener = context.get(TaskListener.class);
+
+            final FilePath repo = workspace.child(repository);
+            final FilePath.FileCallable<CleanupResult> callable = new MavenRepoCleanerPostBuildTask.FileCallableImpl(
+                since > 0 ? since : run.getStartTimeInMillis(), false, false, quota, snapshotBuilds, verifyChecksums,
+                MavenRepoCleanerProperty.DESCRIPTOR.getThrottle());
+            final CleanupRecord record = new CleanupRecord(computer == null ? "" : computer.getName(),
+                run.getParent().getFullName(), System.currentTimeMillis());
+
+            if (async) {
+                listener.getLogger().println("Cleaning up " + repo.getRemote() + " in the background");
+            }
+            cleanup = executor.submit(() -> {
+                try {
+                    CleanupResult removed = repo.act(callable);
+                    record.add(removed);
+                    DiskUsage.get().update(record.getNode(), removed.getUsage(), removed.getStores(),
+                        Collections.<String>emptyList());
+                    listener.getLogger().println(removed.getArtifacts() + " unused artifacts removed from "
+                        + repo.getRemote() + " (" + Functions.humanReadableByteSize(removed.getBytes()) + ")");
+                    return summary(removed);
+                } catch (Exception e) {
+                    record.failed();
+                    throw e;
+                } finally {
+                    record.finished(System.currentTimeMillis() - record.getTimestamp());
+                    CleanupHistory.get().add(record);
+                }
+            });
+
+            if (async) {
+                body = context.newBodyInvoker().withCallback(new Join()).start();
+            } else {
+                join(null, context.hasBody());
+            }
+            return false;
+        }
+
+        /**
+         * Completes the step once the clean up is done, with the failure of the block if it failed.
+         *
+         * @param thenBody whether the block still has to run, after the clean up
+         */
+        private void join(final Throwable failure, final boolean thenBody) {
+            final StepContext context = getContext();
+            final Future<?> cleanup = this.cleanup;
+            if (cleanup == null) {
+                // lost when Jenkins restarted, nothing to wait for
+                if (failure != null) {
+                    context.onFailure(failure);
+                } else {
+                    context.onSuccess(null);
+                }
+                return;
+            }
+            executor.submit(() -> {
+                Object summary = null;
+                Throwable error = failure;
+                try {
+                    summary = cleanup.get();
+                } catch (ExecutionException e) {
+                    if (error == null) error = e.getCause();
+                } catch (Exception e) {
+                    if (error == null) error = e;
+                }
+                if (error != null) {
+                    context.onFailure(error);
+                } else if (thenBody) {
+                    body = context.newBodyInvoker().withCallback(new Done(summary)).start();
+                } else {
+                    context.onSuccess(summary);
+                }
+            });
+        }
+
+        @Override
+        public void stop(Throwable cause) throws Exception {
+            Future<?> cleanup = this.cleanup;
+            if (cleanup != null) {
+                cleanup.cancel(true);
+            }
+            if (body != null) {
+                body.cancel(cause);
+            } else {
+                getContext().onFailure(cause);
+            }
+        }
+
+        @Override
+        public void onResume() {
+            if (body == null) {
+                // the clean up was cut short by the restart, it is done as far as the pipeline is concerned
+                getContext().onSuccess(null);
+            }
+        }
+
+        @Override
+        public String getStatus() {
+            Future<?> cleanup = this.cleanup;
+            if (cleanup == null) return "clean up lost on restart";
+            return cleanup.isDone() ? "clean up done" : "cleaning up " + repository;
+        }
+
+        /**
+         * Joins the clean up when the block is over.
+         */
+        private class Join extends BodyExecutionCallback {
+            @Override
+            public void onSuccess(StepContext context, Object result) {
+                join(null, false);
+            }
+
+            @Override
+            public void onFailure(StepContext context, Throwable t) {
+                join(t, false);
+            }
+
+            private static final long serialVersionUID = 1L;
+        }
+
+        /**
+         * Returns the summary of the clean up when the block that ran after it is over.
+         */
+        private static class Done extends BodyExecutionCallback {
+            private final Object summary;
+
+            Done(Object summary) {
+                this.summary = summary;
+            }
+
+            @Override
+            public void onSuccess(StepContext context, Object result) {
+                context.onSuccess(summary);
+            }
+
+            @Override
+            public void onFailure(StepContext context, Throwable t) {
+                context.onFailure(t);
+            }
+
+            private static final long serialVersionUID = 1L;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(
+        new NamingThreadFactory(new DaemonThreadFactory(), "cleanMavenRepo"));
+
+    /**
+     * Only loaded when Pipeline is installed.
+     */
+    @Extension(optional = true)
+    public static class DescriptorImpl extends StepDescriptor {
+
+        @Override
+        public String getFunctionName() {
+            return "cleanMavenRepo";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Cleanup maven repository for unused artifacts";
+        }
+
+        @Override
+        public boolean takesImplicitBlockArgument() {
+            return true;
+        }
+
+        @Override
+        public Set<? extends Class<?>> getRequiredContext() {
+            return new HashSet<Class<?>>(Arrays.asList(FilePath.class, Run.class, TaskListener.class));
+        }
+    }
+}
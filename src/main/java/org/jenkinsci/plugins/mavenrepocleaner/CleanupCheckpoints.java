@@ -0,0 +1,137 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import hudson.XmlFile;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.jenkinsci.plugins.mavenrepocleaner.RepositoryExpirationCallable.Policy;
+
+/**
+ * Scheduled clean up runs not completed yet, node by node, persisted in <tt>JENKINS_HOME</tt> so that a node cut
+ * short by a disconnection, a timeout or a restart is handed the same run again, with the same reference time and
+ * policies, instead of a new one. Nodes record how far they went themselves, as {@link Checkpoint}s next to what
+ * they clean, and only resume from there for the run that wrote them.
+ * <p>
+ * A run is given up after {@link #maxAttempts} attempts, and the node then starts over with a new one.
+ */
+final class CleanupCheckpoints {
+
+    /**
+     * Number of attempts at a run before it is given up.
+     */
+    static int maxAttempts = Integer.getInteger(CleanupCheckpoints.class.getName() + ".maxAttempts", 10);
+
+    private static CleanupCheckpoints instance;
+
+    /** Run pending per node name, <tt>""</tt> for the controller. */
+    private Map<String, Run> runs = new HashMap<String, Run>();
+
+    static synchronized CleanupCheckpoints get() {
+        if (instance == null) {
+            instance = new CleanupCheckpoints();
+            XmlFile file = getConfigFile();
+            if (file.exists()) {
+                try {
+                    file.unmarshal(instance);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+                }
+            }
+            if (instance.runs == null) instance.runs = new HashMap<String, Run>();
+        }
+        return instance;
+    }
+
+    private static XmlFile getConfigFile() {
+        return new XmlFile(new File(Jenkins.get().getRootDir(), CleanupCheckpoints.class.getName() + ".xml"));
+    }
+
+    /**
+     * @return the run pending for a node, <tt>null</tt> if there is none
+     */
+    synchronized Run get(String node) {
+        return runs.get(node);
+    }
+
+    /**
+     * Records an attempt at cleaning a node up, resuming the run pending for it if any.
+     *
+     * @param now      reference time of a new run
+     * @param policies policies of a new run
+     * @return the run to hand the node
+     */
+    synchronized Run start(String node, long now, Map<String, Policy> policies) {
+        Run run = runs.get(node);
+        if (run == null || run.attempts >= maxAttempts) {
+            run = new Run(now, policies);
+            runs.put(node, run);
+        }
+        run.attempts++;
+        run.attempted = System.currentTimeMillis();
+        save();
+        return run;
+    }
+
+    /**
+     * Records that a node is done with its run.
+     */
+    synchronized void completed(String node) {
+        if (runs.remove(node) != null) save();
+    }
+
+    /**
+     * Forgets the runs of nodes that no longer exist.
+     */
+    synchronized void retain(Collection<String> nodes) {
+        if (runs.keySet().retainAll(nodes)) save();
+    }
+
+    private void save() {
+        try {
+            getConfigFile().write(this);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save the clean up checkpoints", e);
+        }
+    }
+
+    /**
+     * A run of a node, as first decided.
+     */
+    static final class Run {
+        /** Reference time of the run, also identifies it on the node. */
+        final long now;
+        final Map<String, Policy> policies;
+        int attempts;
+        /** When it was last attempted. */
+        long attempted;
+
+        Run(long now, Map<String, Policy> policies) {
+            this.now = now;
+            this.policies = new HashMap<String, Policy>(policies);
+        }
+
+        /**
+         * Policies of the run given the current ones. Jobs created since get theirs, and so do jobs now building or
+         * no longer cleaned up, whose repository can't be deleted just because it could when the run started.
+         */
+        Map<String, Policy> policies(Map<String, Policy> current) {
+            Map<String, Policy> policies = new HashMap<String, Policy>(this.policies);
+            for (Map.Entry<String, Policy> e : current.entrySet()) {
+                Policy policy = e.getValue();
+                if (!policies.containsKey(e.getKey()) || policy == Policy.KEEP || policy == Policy.EVICT_COLD) {
+                    policies.put(e.getKey(), policy);
+                }
+            }
+            return policies;
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(CleanupCheckpoints.class.getName());
+}
@@ -0,0 +1,174 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Api;
+import hudson.model.ManagementLink;
+import hudson.security.Permission;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.StaplerProxy;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Keeps the metrics of the latest clean ups in memory, and running totals since startup, along with the
+ * {@link DiskUsage} of the repositories they went through, for the
+ * <tt>/manage/maven-repo-cleaner</tt> page and its <tt>api/json</tt> endpoint, and for the metrics plugin if
+ * installed.
+ * <p>
+ * Both tell which nodes, jobs and repositories there are, and are only served to administrators.
+ */
+@Extension
+@ExportedBean
+public class CleanupHistory extends ManagementLink implements StaplerProxy {
+
+    /**
+     * Number of clean ups kept, node by node.
+     */
+    public static int SIZE = Integer.getInteger(CleanupHistory.class.getName() + ".size", 200);
+
+    /**
+     * Number of repositories listed among the largest.
+     */
+    public static int LARGEST = Integer.getInteger(CleanupHistory.class.getName() + ".largest", 20);
+
+    private final Deque<CleanupRecord> records = new ArrayDeque<CleanupRecord>();
+    private long runs;
+    private long filesVisited;
+    private long artifactsRemoved;
+    private long bytesReclaimed;
+    private long errors;
+
+    public static CleanupHistory get() {
+        return ExtensionList.lookup(ManagementLink.class).get(CleanupHistory.class);
+    }
+
+    /**
+     * Adds the metrics of a finished clean up.
+     */
+    void add(CleanupRecord record) {
+        synchronized (records) {
+            records.addFirst(record);
+            while (records.size() > SIZE) {
+                records.removeLast();
+            }
+            runs++;
+            filesVisited += record.getFilesVisited();
+            artifactsRemoved += record.getArtifactsRemoved();
+            bytesReclaimed += record.getBytesReclaimed();
+            errors += record.getErrors();
+        }
+        if (Jenkins.get().getPlugin("metrics") != null) {
+            CleanupMetricProvider.record(record);
+        }
+    }
+
+    /**
+     * Latest clean ups, most recent first.
+     */
+    @Exported(inline = true)
+    public List<CleanupRecord> getRecords() {
+        synchronized (records) {
+            return Collections.unmodifiableList(new ArrayList<CleanupRecord>(records));
+        }
+    }
+
+    @Exported
+    public long getRuns() {
+        synchronized (records) {
+            return runs;
+        }
+    }
+
+    @Exported
+    public long getFilesVisited() {
+        synchronized (records) {
+            return filesVisited;
+        }
+    }
+
+    @Exported
+    public long getArtifactsRemoved() {
+        synchronized (records) {
+            return artifactsRemoved;
+        }
+    }
+
+    @Exported
+    public long getBytesReclaimed() {
+        synchronized (records) {
+            return bytesReclaimed;
+        }
+    }
+
+    @Exported
+    public long getErrors() {
+        synchronized (records) {
+            return errors;
+        }
+    }
+
+    /**
+     * Devices the repositories cleaned up live on, fullest first, as {@link DiskUsage} knows them.
+     */
+    @Exported(inline = true)
+    public List<DiskUsage.Device> getDevices() {
+        return DiskUsage.get().getDevices();
+    }
+
+    /**
+     * Largest repositories cleaned up, largest first.
+     */
+    @Exported(inline = true)
+    public List<DiskUsage.Repository> getLargestRepositories() {
+        return DiskUsage.get().getLargest(LARGEST);
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    /**
+     * Checks the permission before serving any URL, the page as well as its API.
+     */
+    public Object getTarget() {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        return this;
+    }
+
+    @Override
+    public Permission getRequiredPermission() {
+        return Jenkins.ADMINISTER;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "clipboard.png";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "maven-repo-cleaner";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "Maven Repository Cleanup";
+    }
+
+    @Override
+    public String getDescription() {
+        return "Duration and outcome of the latest Maven repository clean ups, node by node.";
+    }
+
+    @Override
+    public Category getCategory() {
+        return Category.STATUS;
+    }
+}
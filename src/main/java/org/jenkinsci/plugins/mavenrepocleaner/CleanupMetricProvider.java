@@ -0,0 +1,73 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.Timer;
+import hudson.Extension;
+import hudson.ExtensionList;
+import jenkins.metrics.api.MetricProvider;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes clean up metrics to the metrics plugin, when installed, so that they get scraped along with the
+ * other Jenkins metrics. Only loaded when the metrics plugin is.
+ */
+@Extension(optional = true)
+public class CleanupMetricProvider extends MetricProvider {
+
+    private static final String PREFIX = "maven-repo-cleaner.";
+
+    private final Timer duration = new Timer();
+    private final Timer scanDuration = new Timer();
+    private final Timer deleteDuration = new Timer();
+    private final Counter filesVisited = new Counter();
+    private final Counter artifactsRemoved = new Counter();
+    private final Counter bytesReclaimed = new Counter();
+    private final Counter repositoriesDeleted = new Counter();
+    private final Counter remotingCalls = new Counter();
+    private final Counter errors = new Counter();
+
+    private final MetricSet metrics;
+
+    public CleanupMetricProvider() {
+        Map<String, Metric> metrics = new HashMap<String, Metric>();
+        metrics.put(PREFIX + "duration", duration);
+        metrics.put(PREFIX + "scan.duration", scanDuration);
+        metrics.put(PREFIX + "delete.duration", deleteDuration);
+        metrics.put(PREFIX + "files.visited", filesVisited);
+        metrics.put(PREFIX + "artifacts.removed", artifactsRemoved);
+        metrics.put(PREFIX + "bytes.reclaimed", bytesReclaimed);
+        metrics.put(PREFIX + "repositories.deleted", repositoriesDeleted);
+        metrics.put(PREFIX + "remoting.calls", remotingCalls);
+        metrics.put(PREFIX + "errors", errors);
+        final Map<String, Metric> all = Collections.unmodifiableMap(metrics);
+        this.metrics = () -> all;
+    }
+
+    @Override
+    public MetricSet getMetricSet() {
+        return metrics;
+    }
+
+    /**
+     * Only to be called when the metrics plugin is installed.
+     */
+    static void record(CleanupRecord record) {
+        for (CleanupMetricProvider provider : ExtensionList.lookup(CleanupMetricProvider.class)) {
+            provider.duration.update(record.getDuration(), TimeUnit.MILLISECONDS);
+            provider.scanDuration.update(record.getScanDuration(), TimeUnit.MILLISECONDS);
+            provider.deleteDuration.update(record.getDeleteDuration(), TimeUnit.MILLISECONDS);
+            provider.filesVisited.inc(record.getFilesVisited());
+            provider.artifactsRemoved.inc(record.getArtifactsRemoved());
+            provider.bytesReclaimed.inc(record.getBytesReclaimed());
+            provider.repositoriesDeleted.inc(record.getRepositoriesDeleted());
+            provider.remotingCalls.inc(record.getRemotingCalls());
+            provider.errors.inc(record.getErrors());
+        }
+    }
+}
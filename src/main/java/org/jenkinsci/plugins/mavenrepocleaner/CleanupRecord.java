@@ -0,0 +1,143 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Metrics of the clean up of one node, by the scheduled thread or by a build's post-build task, as kept in the
+ * {@link CleanupHistory}.
+ */
+@ExportedBean(defaultVisibility = 2)
+public final class CleanupRecord {
+
+    private final String node;
+    private final String trigger;
+    private final long timestamp;
+    private long duration;
+    private long scanDuration;
+    private long deleteDuration;
+    private long filesVisited;
+    private long artifactsRemoved;
+    private long bytesReclaimed;
+    private int repositoriesDeleted;
+    private int remotingCalls;
+    private long errors;
+
+    /**
+     * @param node    name of the node cleaned up, <tt>""</tt> for the controller
+     * @param trigger full name of the job whose build cleaned its repository up, <tt>null</tt> for the scheduled
+     *                clean up
+     */
+    CleanupRecord(String node, String trigger, long timestamp) {
+        this.node = node;
+        this.trigger = trigger;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Adds the outcome of a {@link RepositoryCleaner} run.
+     */
+    void add(CleanupResult result) {
+        remotingCalls++;
+        scanDuration += result.getScanDuration();
+        deleteDuration += result.getDeleteDuration();
+        filesVisited += result.getFilesVisited();
+        artifactsRemoved += result.getArtifacts();
+        bytesReclaimed += result.getBytes();
+        errors += result.getErrors();
+    }
+
+    /**
+     * Adds the outcome of a {@link RepositoryExpirationCallable}.
+     */
+    void add(RepositoryExpirationCallable.Summary summary) {
+        remotingCalls++;
+        scanDuration += summary.scanDuration;
+        deleteDuration += summary.deleteDuration;
+        filesVisited += summary.filesVisited;
+        artifactsRemoved += summary.evicted + summary.cold;
+        bytesReclaimed += summary.evictedBytes + summary.coldBytes;
+        repositoriesDeleted += summary.deleted.size();
+        errors += summary.errors + summary.failures.size();
+    }
+
+    void failed() {
+        errors++;
+    }
+
+    void finished(long duration) {
+        this.duration = duration;
+    }
+
+    @Exported
+    public String getNode() {
+        return node;
+    }
+
+    /**
+     * Full name of the job whose build cleaned its repository up, <tt>null</tt> for the scheduled clean up.
+     */
+    @Exported
+    public String getTrigger() {
+        return trigger;
+    }
+
+    @Exported
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Milliseconds the clean up took, as seen from the controller.
+     */
+    @Exported
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Milliseconds spent scanning where the repositories live, deletions included.
+     */
+    @Exported
+    public long getScanDuration() {
+        return scanDuration;
+    }
+
+    @Exported
+    public long getDeleteDuration() {
+        return deleteDuration;
+    }
+
+    @Exported
+    public long getFilesVisited() {
+        return filesVisited;
+    }
+
+    @Exported
+    public long getArtifactsRemoved() {
+        return artifactsRemoved;
+    }
+
+    @Exported
+    public long getBytesReclaimed() {
+        return bytesReclaimed;
+    }
+
+    /**
+     * Number of expired repositories deleted as a whole, their artifacts aren't counted one by one.
+     */
+    @Exported
+    public int getRepositoriesDeleted() {
+        return repositoriesDeleted;
+    }
+
+    @Exported
+    public int getRemotingCalls() {
+        return remotingCalls;
+    }
+
+    @Exported
+    public long getErrors() {
+        return errors;
+    }
+}
@@ -0,0 +1,348 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of a {@link RepositoryCleaner} run, aggregated where the repository lives so that only counts travel
+ * back to the controller: artifacts removed, bytes freed, and the same totals per groupId.
+ * <p>
+ * The path of each removed artifact is only kept when asked for, in memory for {@link RepositoryCleaner#clean}
+ * callers, or streamed to a compressed log file next to the repository.
+ * <p>
+ * Also carries how the run went: files visited, failures, and time spent scanning and deleting, and what is left:
+ * the bytes of the artifacts each repository still holds, as counted by the scan and the evictions after it, and
+ * the {@link Store} it lives on.
+ */
+public class CleanupResult implements Serializable {
+
+    private long artifacts;
+    private long bytes;
+    private final Map<String, Totals> groups = new TreeMap<String, Totals>();
+    private String removedPathsLog;
+    private long filesVisited;
+    private long errors;
+    private long corrupt;
+    private long scanNanos;
+    private long deleteNanos;
+    private final Map<String, Long> usage = new TreeMap<String, Long>();
+    private final Map<String, Store> stores = new TreeMap<String, Store>();
+
+    private transient List<String> paths;
+    private transient Writer log;
+
+    CleanupResult(boolean keepPaths, Writer log) {
+        this.paths = keepPaths ? new ArrayList<String>() : null;
+        this.log = log;
+    }
+
+    /**
+     * A result for a part of the same run, to be {@link #merge merged} back into this one.
+     */
+    CleanupResult fork() {
+        return new CleanupResult(paths != null, log);
+    }
+
+    /**
+     * Adds the outcome of a part of the run.
+     */
+    void merge(CleanupResult other) {
+        artifacts += other.artifacts;
+        bytes += other.bytes;
+        filesVisited += other.filesVisited;
+        errors += other.errors;
+        corrupt += other.corrupt;
+        scanNanos += other.scanNanos;
+        deleteNanos += other.deleteNanos;
+        for (Map.Entry<String, Totals> e : other.groups.entrySet()) {
+            totals(e.getKey()).add(e.getValue().artifacts, e.getValue().bytes);
+        }
+        for (Map.Entry<String, Long> e : other.usage.entrySet()) {
+            retained(e.getKey(), e.getValue());
+        }
+        stores.putAll(other.stores);
+        if (paths != null && other.paths != null) {
+            paths.addAll(other.paths);
+        }
+    }
+
+    /**
+     * Records a removed artifact.
+     *
+     * @param groupId groupId of the artifact
+     * @param path    location of the artifact in the repository
+     * @param size    bytes freed by removing it and its checksums
+     */
+    void removed(String groupId, String path, long size) throws IOException {
+        artifacts++;
+        bytes += size;
+        totals(groupId).add(1, size);
+        if (paths != null) {
+            paths.add(path);
+        }
+        if (log != null) {
+            synchronized (log) {
+                log.write(path);
+                log.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Adds to the bytes of the artifacts left in a repository, or takes from them once evicted.
+     *
+     * @param repository absolute path of the repository
+     */
+    void retained(String repository, long bytes) {
+        Long retained = usage.get(repository);
+        usage.put(repository, retained == null ? bytes : retained + bytes);
+    }
+
+    /**
+     * Records the file store a repository lives on.
+     */
+    void located(String repository, Store store) {
+        stores.put(repository, store);
+    }
+
+    void visited(long files) {
+        filesVisited += files;
+    }
+
+    /**
+     * Records an entry that couldn't be listed, read or deleted.
+     */
+    void error() {
+        errors++;
+    }
+
+    /**
+     * Records that the artifact just {@link #removed} was corrupted.
+     */
+    void corrupt() {
+        corrupt++;
+    }
+
+    void scanned(long nanos) {
+        scanNanos += nanos;
+    }
+
+    void deleted(long nanos) {
+        deleteNanos += nanos;
+    }
+
+    void setRemovedPathsLog(String removedPathsLog) {
+        this.removedPathsLog = removedPathsLog;
+    }
+
+    private Totals totals(String groupId) {
+        Totals totals = groups.get(groupId);
+        if (totals == null) {
+            totals = new Totals();
+            groups.put(groupId, totals);
+        }
+        return totals;
+    }
+
+    /**
+     * Number of artifacts removed.
+     */
+    public long getArtifacts() {
+        return artifacts;
+    }
+
+    /**
+     * Bytes freed, artifacts and their checksums.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Totals per groupId, sorted by groupId.
+     */
+    public Map<String, Totals> getGroups() {
+        return Collections.unmodifiableMap(groups);
+    }
+
+    /**
+     * Number of files visited by the scan, not counting the sub-trees it could skip.
+     */
+    public long getFilesVisited() {
+        return filesVisited;
+    }
+
+    /**
+     * Number of entries that couldn't be listed, read or deleted.
+     */
+    public long getErrors() {
+        return errors;
+    }
+
+    /**
+     * Number of artifacts removed because they didn't match their checksums, counted in {@link #getArtifacts()}.
+     */
+    public long getCorrupt() {
+        return corrupt;
+    }
+
+    /**
+     * Time spent scanning, deletions along the way included, in milliseconds.
+     */
+    public long getScanDuration() {
+        return TimeUnit.NANOSECONDS.toMillis(scanNanos);
+    }
+
+    /**
+     * Time spent deleting, in milliseconds. Adds up the time of every thread when scanning in parallel.
+     */
+    public long getDeleteDuration() {
+        return TimeUnit.NANOSECONDS.toMillis(deleteNanos);
+    }
+
+    /**
+     * Location of the compressed log of removed paths, <tt>null</tt> if none was written.
+     */
+    public String getRemovedPathsLog() {
+        return removedPathsLog;
+    }
+
+    /**
+     * Bytes of the artifacts left in each repository scanned, checksums and metadata aside, by absolute path.
+     * Repositories scanned by the {@link RepositoryCleaner.Engine#WALKER} engine aren't accounted for.
+     */
+    public Map<String, Long> getUsage() {
+        return Collections.unmodifiableMap(usage);
+    }
+
+    /**
+     * File store of each repository scanned, by absolute path.
+     */
+    public Map<String, Store> getStores() {
+        return Collections.unmodifiableMap(stores);
+    }
+
+    /**
+     * Paths of removed artifacts, <tt>null</tt> unless they were asked to be kept.
+     */
+    Collection<String> getPaths() {
+        return paths;
+    }
+
+    /**
+     * Artifacts and bytes removed for one groupId.
+     */
+    public static final class Totals implements Serializable {
+        private long artifacts;
+        private long bytes;
+
+        void add(long artifacts, long bytes) {
+            this.artifacts += artifacts;
+            this.bytes += bytes;
+        }
+
+        public long getArtifacts() {
+            return artifacts;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * A file store as seen from the machine a repository lives on. Stores of the same device number on the same
+     * host, or of the same mount point where there are no device numbers, are taken for the same physical device,
+     * whichever node they are mounted on. Their names aren't told apart, all <tt>tmpfs</tt> or <tt>overlay</tt>
+     * mounts share theirs.
+     */
+    public static final class Store implements Serializable {
+        private final String device;
+        private final String description;
+        private final long total;
+        private final long usable;
+
+        Store(String device, String description, long total, long usable) {
+            this.device = device;
+            this.description = description;
+            this.total = total;
+            this.usable = usable;
+        }
+
+        /**
+         * The store a path lives on, and its current free space.
+         */
+        static Store of(Path path) throws IOException {
+            FileStore store = Files.getFileStore(path);
+            return new Store(HOST + ':' + device(path, store), HOST + ": " + store, store.getTotalSpace(),
+                store.getUsableSpace());
+        }
+
+        private static String device(Path path, FileStore store) throws IOException {
+            try {
+                return String.valueOf(Files.getAttribute(path, "unix:dev"));
+            } catch (UnsupportedOperationException | IllegalArgumentException e) {
+                // mount point and name
+                return store.toString();
+            }
+        }
+
+        /**
+         * Identifies the device, host and device number or mount point.
+         */
+        public String getDevice() {
+            return device;
+        }
+
+        /**
+         * Host, mount point and store name, for display.
+         */
+        public String getDescription() {
+            return description;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public long getUsable() {
+            return usable;
+        }
+
+        /**
+         * Share of the store in use, between <tt>0</tt> and <tt>1</tt>.
+         */
+        public double getFullness() {
+            return total <= 0 ? 0 : (double) (total - usable) / total;
+        }
+
+        private static final String HOST = host();
+
+        private static String host() {
+            try {
+                return InetAddress.getLocalHost().getHostName();
+            } catch (UnknownHostException e) {
+                return "localhost";
+            }
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final long serialVersionUID = 1L;
+}
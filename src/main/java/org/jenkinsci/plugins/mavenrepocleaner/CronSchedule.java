@@ -0,0 +1,65 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import antlr.ANTLRException;
+import hudson.scheduler.CronTab;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+/**
+ * The clean up schedule, parsed once, that tells when it next fires instead of being checked minute by minute.
+ * <p>
+ * Accepts what {@link hudson.scheduler.CronTabList#create(String)} does: one cron line per line, blank lines and
+ * <tt>#</tt> comments, and a first <tt>TZ=</tt> line setting the timezone of the others.
+ */
+final class CronSchedule {
+
+    private static final long MINUTE = 60 * 1000L;
+
+    private final List<CronTab> tabs;
+
+    private CronSchedule(List<CronTab> tabs) {
+        this.tabs = tabs;
+    }
+
+    static CronSchedule parse(String spec) throws ANTLRException {
+        List<CronTab> tabs = new ArrayList<CronTab>();
+        String timezone = null;
+        int lineNumber = 0;
+        for (String line : spec == null ? new String[0] : spec.split("\\r?\\n")) {
+            lineNumber++;
+            line = line.trim();
+            if (lineNumber == 1 && line.startsWith("TZ=")) {
+                timezone = line.substring(3).trim();
+                continue;
+            }
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            tabs.add(new CronTab(line, lineNumber, null, timezone));
+        }
+        return new CronSchedule(tabs);
+    }
+
+    boolean isEmpty() {
+        return tabs.isEmpty();
+    }
+
+    /**
+     * @return the first time, at a minute boundary and strictly after <tt>time</tt>, the schedule fires at,
+     *         {@link Long#MAX_VALUE} if it never does
+     */
+    long next(long time) {
+        // CronTab#ceil rounds up to the minute and includes it
+        long from = (time / MINUTE + 1) * MINUTE;
+        long next = Long.MAX_VALUE;
+        for (CronTab tab : tabs) {
+            try {
+                Calendar ceil = tab.ceil(from);
+                if (ceil != null) next = Math.min(next, ceil.getTimeInMillis());
+            } catch (RuntimeException e) {
+                // a date that never comes, like February 30th
+            }
+        }
+        return next;
+    }
+}
@@ -0,0 +1,279 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import hudson.XmlFile;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Running totals of the space the repositories of each node take, and of the devices they live on, persisted in
+ * <tt>JENKINS_HOME</tt> for the <tt>/manage/maven-repo-cleaner</tt> page and to schedule clean ups.
+ * <p>
+ * Nothing is walked to get them: every clean up, scheduled or run by a build, reports the bytes of the artifacts
+ * it left in the repositories it went through, as its scan and evictions counted them, and the scheduled clean up
+ * reports the repositories it deleted.
+ * <p>
+ * Devices are told apart as {@link CleanupResult.Store} does, so that nodes sharing a disk on the same machine are
+ * seen sharing it. Scheduled clean ups start with the nodes whose fullest device is the fullest, and only one of
+ * them at a time cleans up a given device.
+ */
+public final class DiskUsage {
+
+    private static DiskUsage instance;
+
+    /** Repositories per node name, <tt>""</tt> for the controller. */
+    private Map<String, Map<String, Repository>> nodes = new HashMap<String, Map<String, Repository>>();
+    /** Latest state of each device. */
+    private Map<String, CleanupResult.Store> stores = new HashMap<String, CleanupResult.Store>();
+    /** One permit per device, for the scheduled clean ups. */
+    private final transient Map<String, Semaphore> permits = new ConcurrentHashMap<String, Semaphore>();
+
+    static synchronized DiskUsage get() {
+        if (instance == null) {
+            instance = new DiskUsage();
+            XmlFile file = getConfigFile();
+            if (file.exists()) {
+                try {
+                    file.unmarshal(instance);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+                }
+            }
+            if (instance.nodes == null) instance.nodes = new HashMap<String, Map<String, Repository>>();
+            if (instance.stores == null) instance.stores = new HashMap<String, CleanupResult.Store>();
+        }
+        return instance;
+    }
+
+    private static XmlFile getConfigFile() {
+        return new XmlFile(new File(Jenkins.get().getRootDir(), DiskUsage.class.getName() + ".xml"));
+    }
+
+    /**
+     * Records what a clean up of a node left.
+     *
+     * @param usage   bytes of the artifacts left per repository path
+     * @param stores  file store per repository path
+     * @param removed repositories deleted, or found gone
+     */
+    synchronized void update(String node, Map<String, Long> usage, Map<String, CleanupResult.Store> stores,
+                             Collection<String> removed) {
+        Map<String, Repository> repositories = nodes.get(node);
+        if (repositories == null) {
+            repositories = new HashMap<String, Repository>();
+            nodes.put(node, repositories);
+        }
+        repositories.keySet().removeAll(removed);
+        for (Map.Entry<String, Long> e : usage.entrySet()) {
+            CleanupResult.Store store = stores.get(e.getKey());
+            if (store != null) this.stores.put(store.getDevice(), store);
+            repositories.put(e.getKey(), new Repository(node, e.getKey(), e.getValue(),
+                store == null ? null : store.getDevice()));
+        }
+        save();
+    }
+
+    /**
+     * Forgets the repositories of nodes that no longer exist.
+     */
+    synchronized void retain(Collection<String> nodes) {
+        if (this.nodes.keySet().retainAll(nodes)) save();
+    }
+
+    private void save() {
+        try {
+            getConfigFile().write(this);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save the disk usage", e);
+        }
+    }
+
+    /**
+     * Devices the known repositories of a node live on, by name.
+     */
+    synchronized Set<String> devices(String node) {
+        Set<String> devices = new TreeSet<String>();
+        Map<String, Repository> repositories = nodes.get(node);
+        if (repositories == null) return devices;
+        for (Repository repository : repositories.values()) {
+            if (repository.device != null) devices.add(repository.device);
+        }
+        return devices;
+    }
+
+    /**
+     * Share in use of the fullest device of a node, <tt>-1</tt> if none is known yet.
+     */
+    synchronized double fullness(String node) {
+        double fullness = -1;
+        for (String device : devices(node)) {
+            CleanupResult.Store store = stores.get(device);
+            if (store != null) fullness = Math.max(fullness, store.getFullness());
+        }
+        return fullness;
+    }
+
+    /**
+     * Permit a scheduled clean up holds on a device while it runs.
+     */
+    Semaphore permit(String device) {
+        return permits.computeIfAbsent(device, k -> new Semaphore(1));
+    }
+
+    /**
+     * Devices repositories are known on, fullest first.
+     */
+    public synchronized List<Device> getDevices() {
+        Map<String, Device> devices = new HashMap<String, Device>();
+        for (Map<String, Repository> repositories : nodes.values()) {
+            for (Repository repository : repositories.values()) {
+                if (repository.device == null) continue;
+                Device device = devices.get(repository.device);
+                if (device == null) {
+                    device = new Device(stores.get(repository.device));
+                    devices.put(repository.device, device);
+                }
+                device.add(repository);
+            }
+        }
+        List<Device> sorted = new ArrayList<Device>(devices.values());
+        sorted.sort((a, b) -> Double.compare(b.store.getFullness(), a.store.getFullness()));
+        return sorted;
+    }
+
+    /**
+     * The largest repositories known, largest first.
+     */
+    public synchronized List<Repository> getLargest(int count) {
+        List<Repository> repositories = new ArrayList<Repository>();
+        for (Map<String, Repository> r : nodes.values()) {
+            repositories.addAll(r.values());
+        }
+        repositories.sort((a, b) -> Long.compare(b.bytes, a.bytes));
+        return Collections.unmodifiableList(repositories.subList(0, Math.min(count, repositories.size())));
+    }
+
+    /**
+     * A repository and what its artifacts took when it was last cleaned up.
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static final class Repository {
+        private final String node;
+        private final String path;
+        private final long bytes;
+        private final String device;
+
+        Repository(String node, String path, long bytes, String device) {
+            this.node = node;
+            this.path = path;
+            this.bytes = bytes;
+            this.device = device;
+        }
+
+        @Exported
+        public String getNode() {
+            return node;
+        }
+
+        @Exported
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Bytes of its artifacts, checksums and metadata aside.
+         */
+        @Exported
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Exported
+        public String getDevice() {
+            return device;
+        }
+    }
+
+    /**
+     * A device, and the repositories known on it.
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static final class Device {
+        private final CleanupResult.Store store;
+        private final Set<String> nodes = new TreeSet<String>();
+        private int repositories;
+        private long bytes;
+
+        Device(CleanupResult.Store store) {
+            this.store = store;
+        }
+
+        void add(Repository repository) {
+            nodes.add(repository.node);
+            repositories++;
+            bytes += repository.bytes;
+        }
+
+        @Exported
+        public String getName() {
+            return store.getDescription();
+        }
+
+        @Exported
+        public Set<String> getNodes() {
+            return nodes;
+        }
+
+        @Exported
+        public long getTotal() {
+            return store.getTotal();
+        }
+
+        /**
+         * Free space when a clean up last reported it.
+         */
+        @Exported
+        public long getUsable() {
+            return store.getUsable();
+        }
+
+        @Exported
+        public double getFullness() {
+            return store.getFullness();
+        }
+
+        public int getPercentUsed() {
+            return (int) Math.round(store.getFullness() * 100);
+        }
+
+        @Exported
+        public int getRepositories() {
+            return repositories;
+        }
+
+        /**
+         * Bytes of the artifacts of the repositories known on the device.
+         */
+        @Exported
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(DiskUsage.class.getName());
+}
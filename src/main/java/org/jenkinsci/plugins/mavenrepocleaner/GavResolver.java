@@ -0,0 +1,117 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tells which files of a GAV directory are artifacts, and of which groupId, without building their path.
+ * <p>
+ * Stands in for <tt>M2GavCalculator.pathToGav</tt> on the scan hot path. The groupId, artifactId and version are
+ * parsed once per directory from its location, and file names are then only matched against
+ * <tt>artifactId-version[-classifier].extension</tt>, or the timestamped form of a snapshot version, with plain
+ * character comparisons. groupIds are interned, so that the many version directories of a group, and the totals
+ * of the {@link CleanupResult}, share the same instance.
+ * <p>
+ * Not thread safe, each scan thread uses its own.
+ */
+final class GavResolver {
+
+    private static final String SNAPSHOT = "SNAPSHOT";
+
+    private final Map<String, String> groupIds = new HashMap<String, String>();
+
+    private String location;
+    private String groupId;
+    /** <tt>artifactId-version</tt>, or <tt>artifactId-baseVersion-</tt> for a snapshot. */
+    private String prefix;
+    private boolean snapshot;
+
+    /**
+     * Makes a directory the current one.
+     *
+     * @param location location of the directory relative to the repository root, <tt>/org/acme/lib/1.0</tt>
+     * @return whether it can be a GAV directory at all
+     */
+    boolean enter(String location) {
+        if (location.equals(this.location)) return groupId != null;
+        this.location = location;
+
+        int version = location.lastIndexOf('/');
+        int artifactId = version <= 0 ? -1 : location.lastIndexOf('/', version - 1);
+        int start = location.startsWith("/") ? 1 : 0;
+        if (artifactId <= start || version == location.length() - 1 || artifactId + 1 == version) {
+            groupId = null;
+            return false;
+        }
+
+        String path = location.substring(start, artifactId);
+        String interned = groupIds.get(path);
+        if (interned == null) {
+            interned = path.replace('/', '.');
+            groupIds.put(path, interned);
+        }
+        groupId = interned;
+
+        String artifact = location.substring(artifactId + 1, version);
+        String v = location.substring(version + 1);
+        snapshot = v.endsWith('-' + SNAPSHOT);
+        prefix = artifact + '-' + (snapshot ? v.substring(0, v.length() - SNAPSHOT.length()) : v);
+        return true;
+    }
+
+    /**
+     * @param name name of a file of the current directory, checksums aside
+     * @return the groupId of the artifact, <tt>null</tt> if it isn't one
+     */
+    String groupId(String name) {
+        if (groupId == null || !name.startsWith(prefix)) return null;
+        int i = prefix.length();
+        if (snapshot) {
+            if (name.startsWith(SNAPSHOT, i)) {
+                i += SNAPSHOT.length();
+            } else {
+                i = timestamp(name, i);
+                if (i < 0) return null;
+            }
+        }
+        if (i >= name.length()) return null;
+        char c = name.charAt(i);
+        if (c == '-') {
+            // classifier, up to the extension
+            i = name.indexOf('.', i + 2);
+            if (i < 0) return null;
+        } else if (c != '.') {
+            return null;
+        }
+        return i < name.length() - 1 ? groupId : null;
+    }
+
+    /**
+     * @return the groupId of the artifacts of a GAV directory, <tt>""</tt> if it can't be one
+     */
+    static String groupIdOf(String location) {
+        GavResolver resolver = new GavResolver();
+        return resolver.enter(location) ? resolver.groupId : "";
+    }
+
+    /**
+     * Skips a <tt>yyyyMMdd.HHmmss-buildNumber</tt> snapshot timestamp.
+     *
+     * @return the index right after it, <tt>-1</tt> if there is none at <tt>i</tt>
+     */
+    static int timestamp(String name, int i) {
+        if (name.length() < i + 17 || name.charAt(i + 8) != '.' || name.charAt(i + 15) != '-') return -1;
+        for (int j = i; j < i + 15; j++) {
+            if (j != i + 8 && !isDigit(name.charAt(j))) return -1;
+        }
+        int end = i + 16;
+        while (end < name.length() && isDigit(name.charAt(end))) {
+            end++;
+        }
+        return end == i + 16 ? -1 : end;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
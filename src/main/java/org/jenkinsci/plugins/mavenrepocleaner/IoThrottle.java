@@ -0,0 +1,201 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces the file system operations of clean ups so that they don't get in the way of the builds sharing the disk:
+ * at most so many deletes, bytes deleted and stats per second, and optionally an adaptive back off when deletes
+ * get slower than usual.
+ * <p>
+ * Built from the global configuration on the controller and sent along with the clean up. Clean ups running in the
+ * same JVM with the same limits share the same budget, so concurrent post-build clean ups on an agent don't add
+ * up. Pacing stops, with an {@link InterruptedIOException}, when the thread gets interrupted.
+ */
+final class IoThrottle implements Serializable {
+
+    /**
+     * No pacing at all.
+     */
+    static final IoThrottle NONE = new IoThrottle(0, 0, 0, false);
+
+    private static final ConcurrentMap<IoThrottle, State> STATES = new ConcurrentHashMap<IoThrottle, State>();
+
+    private final int deletesPerSecond;
+    private final long bytesPerSecond;
+    private final int statsPerSecond;
+    private final boolean adaptive;
+
+    private transient State state;
+
+    /**
+     * @param deletesPerSecond files and directories deleted per second, <tt>0</tt> for no limit
+     * @param bytesPerSecond   bytes deleted per second, <tt>0</tt> for no limit
+     * @param statsPerSecond   entries listed and stat'ed per second, <tt>0</tt> for no limit
+     * @param adaptive         whether to slow down when deletes take longer than usual
+     */
+    IoThrottle(int deletesPerSecond, long bytesPerSecond, int statsPerSecond, boolean adaptive) {
+        this.deletesPerSecond = Math.max(0, deletesPerSecond);
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        this.statsPerSecond = Math.max(0, statsPerSecond);
+        this.adaptive = adaptive;
+    }
+
+    boolean isEnabled() {
+        return deletesPerSecond > 0 || bytesPerSecond > 0 || statsPerSecond > 0 || adaptive;
+    }
+
+    /**
+     * Waits until <tt>count</tt> more entries can be stat'ed.
+     */
+    void stat(int count) throws InterruptedIOException {
+        if (statsPerSecond > 0) sleep(state().stats.reserve(count));
+    }
+
+    /**
+     * Deletes a file or an empty directory once the limits allow it.
+     *
+     * @param bytes size of the file, <tt>0</tt> for a directory
+     * @return whether it is gone
+     */
+    boolean delete(Path path, long bytes) throws InterruptedIOException {
+        if (!isEnabled()) return deleteNow(path);
+
+        State state = state();
+        long wait = 0;
+        if (deletesPerSecond > 0) wait = Math.max(wait, state.deletes.reserve(1));
+        if (bytesPerSecond > 0 && bytes > 0) wait = Math.max(wait, state.bytes.reserve(bytes));
+        sleep(wait);
+
+        long started = System.nanoTime();
+        boolean deleted = deleteNow(path);
+        if (adaptive) sleep(state.backOff(System.nanoTime() - started));
+        return deleted;
+    }
+
+    private static boolean deleteNow(Path path) {
+        try {
+            Files.deleteIfExists(path);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private State state() {
+        State state = this.state;
+        if (state == null) {
+            state = STATES.computeIfAbsent(this, t -> new State(t));
+            this.state = state;
+        }
+        return state;
+    }
+
+    private static void sleep(long nanos) throws InterruptedIOException {
+        if (nanos <= 0) return;
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while pacing the clean up");
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof IoThrottle)) return false;
+        IoThrottle other = (IoThrottle) o;
+        return deletesPerSecond == other.deletesPerSecond && bytesPerSecond == other.bytesPerSecond
+            && statsPerSecond == other.statsPerSecond && adaptive == other.adaptive;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (31 * (31 * (31 * deletesPerSecond + bytesPerSecond) + statsPerSecond)) + (adaptive ? 1 : 0);
+    }
+
+    /**
+     * Budgets shared by the clean ups of a JVM with the same limits.
+     */
+    private static final class State {
+        final TokenBucket deletes;
+        final TokenBucket bytes;
+        final TokenBucket stats;
+
+        /** Recent delete latency, in nanoseconds, reacting within a few deletes. */
+        private double recent;
+        /** Usual delete latency, in nanoseconds, following over a few hundred deletes. */
+        private double usual;
+        /** How much slower than unthrottled deletes go, 1 for full speed. */
+        private double slowdown = 1;
+
+        State(IoThrottle limits) {
+            deletes = new TokenBucket(limits.deletesPerSecond);
+            bytes = new TokenBucket(limits.bytesPerSecond);
+            stats = new TokenBucket(limits.statsPerSecond);
+        }
+
+        /**
+         * Records the latency of a delete.
+         *
+         * @return nanoseconds to wait before the next delete
+         */
+        synchronized long backOff(long latency) {
+            if (usual == 0) {
+                usual = recent = latency;
+                return 0;
+            }
+            recent += (latency - recent) * 0.2;
+            if (recent > 4 * usual && recent > MIN_SPIKE) {
+                // the disk is struggling, keep the usual latency from drifting up with it
+                slowdown = Math.min(MAX_SLOWDOWN, slowdown * 2);
+            } else {
+                usual += (latency - usual) * 0.01;
+                if (recent < 2 * usual) slowdown = Math.max(1, slowdown / 1.25);
+            }
+            // spend 1 / slowdown of the time deleting
+            return (long) ((slowdown - 1) * recent);
+        }
+    }
+
+    /**
+     * Token bucket holding up to a second worth of operations. Callers reserve what they need right away and are
+     * told how long to wait, so the budget is handed out in order without holding the lock while sleeping.
+     */
+    private static final class TokenBucket {
+        private final long rate;
+        private double tokens;
+        private long refilled = System.nanoTime();
+
+        TokenBucket(long rate) {
+            this.rate = rate;
+            this.tokens = rate;
+        }
+
+        /**
+         * @return nanoseconds to wait before using the reserved tokens
+         */
+        synchronized long reserve(long count) {
+            long now = System.nanoTime();
+            tokens = Math.min(rate, tokens + (now - refilled) * rate / 1e9);
+            refilled = now;
+            tokens -= count;
+            return tokens >= 0 ? 0 : (long) (-tokens * 1e9 / rate);
+        }
+    }
+
+    /**
+     * Deletes slower than this are worth backing off from, whatever the usual latency.
+     */
+    private static final long MIN_SPIKE = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private static final double MAX_SLOWDOWN = 16;
+
+    private static final long serialVersionUID = 1L;
+}
@@ -2,6 +2,7 @@ package org.jenkinsci.plugins.mavenrepocleaner;
 
 import hudson.Extension;
 import hudson.FilePath;
+import hudson.Functions;
 import hudson.Launcher;
 import hudson.maven.AbstractMavenProject;
 import hudson.maven.MavenModuleSet;
@@ -17,30 +18,134 @@ import hudson.tasks.Publisher;
 import hudson.tasks.Recorder;
 import org.jenkinsci.remoting.RoleChecker;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Collection;
+import java.util.Collections;
 
 /**
  * @author <a href="mailto:nicolas.deloof@gmail.com">Nicolas De Loof</a>
  */
 public class MavenRepoCleanerPostBuildTask extends Recorder {
 
+    /**
+     * Name of the gzipped list of removed artifacts written in the workspace when asked for.
+     */
+    static final String REMOVED_PATHS_LOG = "maven-repo-cleaner-removed.txt.gz";
+
+    static final long GIGABYTE = 1024L * 1024 * 1024;
+
+    private boolean accessJournal;
+    private boolean logRemovedPaths;
+    private int quota;
+    private int snapshotBuilds;
+    private boolean verifyChecksums;
+
     @DataBoundConstructor
     public MavenRepoCleanerPostBuildTask() {
 
     }
 
+    public boolean isAccessJournal() {
+        return accessJournal;
+    }
+
+    /**
+     * Tracks artifact usage with the {@link AccessJournal} Maven builds record, rather than with filesystem last
+     * access times that <tt>noatime</tt> or <tt>relatime</tt> mounts don't maintain.
+     */
+    @DataBoundSetter
+    public void setAccessJournal(boolean accessJournal) {
+        this.accessJournal = accessJournal;
+    }
+
+    public boolean isLogRemovedPaths() {
+        return logRemovedPaths;
+    }
+
+    /**
+     * Writes the path of every removed artifact to a gzipped file in the workspace, rather than only counting them.
+     */
+    @DataBoundSetter
+    public void setLogRemovedPaths(boolean logRemovedPaths) {
+        this.logRemovedPaths = logRemovedPaths;
+    }
+
+    public int getQuota() {
+        return quota;
+    }
+
+    /**
+     * Keeps the repository under the given size, in gigabytes, by evicting the least recently used artifacts
+     * instead of every artifact the build didn't use. <tt>0</tt> for no quota.
+     */
+    @DataBoundSetter
+    public void setQuota(int quota) {
+        this.quota = Math.max(0, quota);
+    }
+
+    public int getSnapshotBuilds() {
+        return snapshotBuilds;
+    }
+
+    /**
+     * Keeps only the given number of timestamped builds of each snapshot artifact. <tt>0</tt> to keep them all.
+     */
+    @DataBoundSetter
+    public void setSnapshotBuilds(int snapshotBuilds) {
+        this.snapshotBuilds = Math.max(0, snapshotBuilds);
+    }
+
+    public boolean isVerifyChecksums() {
+        return verifyChecksums;
+    }
+
+    /**
+     * Evicts the artifacts left that match none of their checksums, truncated or corrupted by a killed build.
+     */
+    @DataBoundSetter
+    public void setVerifyChecksums(boolean verifyChecksums) {
+        this.verifyChecksums = verifyChecksums;
+    }
+
     @Override
     public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
 
+        if (accessJournal && !(build instanceof MavenModuleSetBuild)) {
+            // nothing recorded what this build used, everything would look unused
+            listener.getLogger().println("Maven repository usage is only recorded by Maven jobs, skipping cleanup");
+            return true;
+        }
+
         final long started = build.getTimeInMillis();
-        FilePath.FileCallable<Collection<String>> cleanup =
-            new FileCallableImpl(started);
-        Collection<String> removed = build.getWorkspace().child(".repository").act(cleanup);
-        if (removed.size() > 0) {
-            listener.getLogger().println( removed.size() + " unused artifacts removed from private maven repository" );
+        FilePath.FileCallable<CleanupResult> cleanup =
+            new FileCallableImpl(started, accessJournal, logRemovedPaths, quota * GIGABYTE, snapshotBuilds,
+                verifyChecksums, MavenRepoCleanerProperty.DESCRIPTOR.getThrottle());
+        CleanupRecord record = new CleanupRecord(build.getBuiltOnStr(), build.getParent().getFullName(),
+                System.currentTimeMillis());
+        CleanupResult removed;
+        try {
+            removed = build.getWorkspace().child(".repository").act(cleanup);
+            record.add(removed);
+            DiskUsage.get().update(build.getBuiltOnStr(), removed.getUsage(), removed.getStores(),
+                Collections.<String>emptyList());
+        } catch (IOException e) {
+            record.failed();
+            throw e;
+        } finally {
+            record.finished(System.currentTimeMillis() - record.getTimestamp());
+            CleanupHistory.get().add(record);
+        }
+        if (removed.getArtifacts() > 0) {
+            listener.getLogger().println( removed.getArtifacts() + " unused artifacts removed from private maven repository ("
+                    + Functions.humanReadableByteSize(removed.getBytes()) + ")" );
+        }
+        if (removed.getCorrupt() > 0) {
+            listener.getLogger().println( removed.getCorrupt() + " of them didn't match their checksums" );
+        }
+        if (removed.getRemovedPathsLog() != null) {
+            listener.getLogger().println( "Removed artifacts listed in " + removed.getRemovedPathsLog() );
         }
         return true;
     }
@@ -67,13 +172,36 @@ public class MavenRepoCleanerPostBuildTask extends Recorder {
                     || AbstractMavenProject.class.isAssignableFrom(jobType);
         }
     }
-    private static class FileCallableImpl implements FilePath.FileCallable<Collection<String>> {
+    static class FileCallableImpl implements FilePath.FileCallable<CleanupResult> {
         private final long started;
-        public FileCallableImpl(long started) {
+        private final boolean accessJournal;
+        private final boolean logRemovedPaths;
+        private final long quota;
+        private final int snapshotBuilds;
+        private final boolean verifyChecksums;
+        private final IoThrottle throttle;
+        public FileCallableImpl(long started, boolean accessJournal, boolean logRemovedPaths, long quota, int snapshotBuilds,
+                                boolean verifyChecksums, IoThrottle throttle) {
             this.started = started;
+            this.accessJournal = accessJournal;
+            this.logRemovedPaths = logRemovedPaths;
+            this.quota = quota;
+            this.snapshotBuilds = snapshotBuilds;
+            this.verifyChecksums = verifyChecksums;
+            this.throttle = throttle;
         }
-        public Collection<String> invoke(File repository, VirtualChannel channel) throws IOException, InterruptedException {
-            return new RepositoryCleaner(started).clean(repository);
+        public CleanupResult invoke(File repository, VirtualChannel channel) throws IOException, InterruptedException {
+            // under a quota, artifacts are only evicted to fit in it, whether the build used them or not
+            RepositoryCleaner cleaner = new RepositoryCleaner(quota > 0 ? 0 : started);
+            cleaner.setQuota(quota);
+            cleaner.setSnapshotRetention(snapshotBuilds);
+            cleaner.setThrottle(throttle);
+            cleaner.setVerifyChecksums(verifyChecksums);
+            cleaner.setAccessJournal(accessJournal);
+            if (logRemovedPaths) {
+                cleaner.setRemovedPathsLog(new File(repository.getParentFile(), REMOVED_PATHS_LOG));
+            }
+            return cleaner.cleanup(repository);
         }
 
         @Override
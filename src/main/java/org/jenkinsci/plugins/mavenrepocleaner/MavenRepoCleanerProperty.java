@@ -70,6 +70,18 @@ public class MavenRepoCleanerProperty extends JobProperty<AbstractProject<?,?>>
         private String cronSpec;
         private int expirationDays = 7;
         private int expirationStyle = 1;
+        private int nodeQuota = 0;
+        private boolean deduplicate;
+        private boolean deduplicateHardlinks;
+        private boolean cleanBuilding;
+        private int jitterMinutes = 0;
+        private int maxDeletesPerSecond = 0;
+        private int maxMegabytesPerSecond = 0;
+        private int maxStatsPerSecond = 0;
+        private boolean adaptiveThrottle;
+        private int warmCacheSize = 0;
+        private transient CronTabList cronTab;
+        private transient CronSchedule schedule;
         
         public DescriptorImpl() {
             super( MavenRepoCleanerProperty.class );
@@ -113,6 +125,30 @@ public class MavenRepoCleanerProperty extends JobProperty<AbstractProject<?,?>>
                 expirationDays = 7;
             }
 
+            String quota = fixEmpty(req.getParameter("mavenrepocleaner.nodeQuota"));
+            nodeQuota = 0;
+            if (quota != null) {
+                try {
+                    nodeQuota = Math.max(0, DecimalFormat.getIntegerInstance().parse(quota).intValue());
+                } catch (ParseException e) {
+                    nodeQuota = 0;
+                }
+            }
+
+            deduplicate = req.getParameter("mavenrepocleaner.deduplicate") != null;
+            deduplicateHardlinks = deduplicate && req.getParameter("mavenrepocleaner.deduplicateHardlinks") != null;
+            cleanBuilding = req.getParameter("mavenrepocleaner.cleanBuilding") != null;
+
+            String jitter = fixEmpty(req.getParameter("mavenrepocleaner.jitterMinutes"));
+            jitterMinutes = 0;
+            if (jitter != null) {
+                try {
+                    jitterMinutes = Math.max(0, DecimalFormat.getIntegerInstance().parse(jitter).intValue());
+                } catch (ParseException e) {
+                    jitterMinutes = 0;
+                }
+            }
+
             String expStyle = fixEmpty(req.getParameter("mavenrepocleaner.expirationStyle"));
             if (expStyle != null) {
                 if (expStyle.equals("added")) {
@@ -128,11 +164,30 @@ public class MavenRepoCleanerProperty extends JobProperty<AbstractProject<?,?>>
                     expirationStyle = 1;
                 }
             }
-            
+
+            maxDeletesPerSecond = parseLimit(req.getParameter("mavenrepocleaner.maxDeletesPerSecond"));
+            maxMegabytesPerSecond = parseLimit(req.getParameter("mavenrepocleaner.maxMegabytesPerSecond"));
+            maxStatsPerSecond = parseLimit(req.getParameter("mavenrepocleaner.maxStatsPerSecond"));
+            adaptiveThrottle = req.getParameter("mavenrepocleaner.adaptiveThrottle") != null;
+            warmCacheSize = parseLimit(req.getParameter("mavenrepocleaner.warmCacheSize"));
+
+            // parsed again on next use
+            cronTab = null;
+            schedule = null;
             save();
             return true;
         }
         
+        private static int parseLimit(String value) {
+            value = fixEmpty(value);
+            if (value == null) return 0;
+            try {
+                return Math.max(0, DecimalFormat.getIntegerInstance().parse(value).intValue());
+            } catch (ParseException e) {
+                return 0;
+            }
+        }
+
         @Override
         public JobProperty<?> newInstance(StaplerRequest req, JSONObject formData) throws FormException {
             if (formData.has("notOnThisProject")) {
@@ -156,15 +211,113 @@ public class MavenRepoCleanerProperty extends JobProperty<AbstractProject<?,?>>
         public int getExpirationStyle() {
             return expirationStyle;
         }
+
+        /**
+         * Gigabytes the repositories of each node are kept under, least recently used artifacts being evicted
+         * first. <tt>0</tt> for no quota.
+         */
+        public int getNodeQuota() {
+            return nodeQuota;
+        }
+
+        /**
+         * Whether identical release artifacts of the repositories of a node are replaced with copy-on-write clones,
+         * where the filesystem supports them.
+         */
+        public boolean isDeduplicate() {
+            return deduplicate;
+        }
+
+        /**
+         * Whether duplicates that can't be cloned are hardlinked instead, which is only safe when every build uses
+         * Maven 3.9 or later: earlier resolvers write into existing files in place, and so through the links.
+         */
+        public boolean isDeduplicateHardlinks() {
+            return deduplicateHardlinks;
+        }
+
+        /**
+         * Whether the repositories of running builds get their unused artifacts evicted, version directories the
+         * builds hold being skipped, instead of being left alone.
+         */
+        public boolean isCleanBuilding() {
+            return cleanBuilding;
+        }
         
+        /**
+         * Minutes the scheduled clean up of nodes is spread over, each node always getting the same offset.
+         * <tt>0</tt> to clean them all up right away.
+         */
+        public int getJitterMinutes() {
+            return jitterMinutes;
+        }
+
+        /**
+         * Files and directories deleted per second by a clean up, <tt>0</tt> for no limit.
+         */
+        public int getMaxDeletesPerSecond() {
+            return maxDeletesPerSecond;
+        }
+
+        /**
+         * Megabytes deleted per second by a clean up, <tt>0</tt> for no limit.
+         */
+        public int getMaxMegabytesPerSecond() {
+            return maxMegabytesPerSecond;
+        }
+
+        /**
+         * Files and directories listed per second by a clean up, <tt>0</tt> for no limit.
+         */
+        public int getMaxStatsPerSecond() {
+            return maxStatsPerSecond;
+        }
+
+        /**
+         * Whether clean ups slow down when deletes take longer than usual, the disk being busy.
+         */
+        public boolean isAdaptiveThrottle() {
+            return adaptiveThrottle;
+        }
+
+        /**
+         * Gigabytes of release versions used across the repositories of each node kept in a cache, to seed new
+         * and expired repositories with. <tt>0</tt> for no cache.
+         */
+        public int getWarmCacheSize() {
+            return warmCacheSize;
+        }
+
+        IoThrottle getThrottle() {
+            return new IoThrottle(maxDeletesPerSecond, maxMegabytesPerSecond * 1024L * 1024, maxStatsPerSecond,
+                adaptiveThrottle);
+        }
+
         public CronTabList getCronTab() throws ANTLRException {
-            // If the cron spec isn't null or empty, create and return the CronTabList. Otherwise return an empty one.
-            if ((cronSpec!=null) && (!cronSpec.equals(""))) {
-                return CronTabList.create(cronSpec);
+            CronTabList cronTab = this.cronTab;
+            if (cronTab == null) {
+                // If the cron spec isn't null or empty, create and return the CronTabList. Otherwise return an empty one.
+                if ((cronSpec!=null) && (!cronSpec.equals(""))) {
+                    cronTab = CronTabList.create(cronSpec);
+                }
+                else {
+                    cronTab = new CronTabList(Collections.<CronTab>emptyList());
+                }
+                this.cronTab = cronTab;
             }
-            else {
-                return new CronTabList(Collections.<CronTab>emptyList());
+            return cronTab;
+        }
+
+        /**
+         * The schedule of the clean up, parsed once per configuration change.
+         */
+        CronSchedule getSchedule() throws ANTLRException {
+            CronSchedule schedule = this.schedule;
+            if (schedule == null) {
+                schedule = CronSchedule.parse(cronSpec);
+                this.schedule = schedule;
             }
+            return schedule;
         }
             
         
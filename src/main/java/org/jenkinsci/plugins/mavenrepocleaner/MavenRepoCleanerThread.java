@@ -26,26 +26,49 @@ package org.jenkinsci.plugins.mavenrepocleaner;
 import antlr.ANTLRException;
 
 import hudson.FilePath;
-import hudson.Util;
 import hudson.Extension;
+import hudson.Functions;
+import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Executor;
 import hudson.model.Hudson;
+import hudson.model.Item;
 import hudson.model.Node;
+import hudson.model.Queue;
 import hudson.model.Slave;
 import hudson.model.TaskListener;
 import hudson.model.TopLevelItem;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import hudson.util.StreamTaskListener;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.IOException;
-import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.GregorianCalendar;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.jenkinsci.plugins.mavenrepocleaner.RepositoryExpirationCallable.Policy;
+
 /**
  * Clean up Maven repositories
  *
@@ -54,7 +77,18 @@ import java.util.logging.Logger;
 @Extension
 public class MavenRepoCleanerThread extends AsyncPeriodicWork {
     private static MavenRepoCleanerThread theInstance;
-    private final Calendar cal = new GregorianCalendar();
+
+    /**
+     * Schedule {@link #nextFire} has been computed from, to notice configuration changes.
+     */
+    private CronSchedule schedule;
+    private long nextFire;
+    /**
+     * Whether execution was last skipped as {@link #disabled}, and the invalid schedule last warned about, so that
+     * they are logged once rather than every minute.
+     */
+    private boolean skipped;
+    private String invalidSpec;
 
     // so that this can be easily accessed from sub-routine.
     private TaskListener listener;
@@ -66,181 +100,453 @@ public class MavenRepoCleanerThread extends AsyncPeriodicWork {
     
     
     public long getRecurrencePeriod() {
-        return HOUR;
+        return MIN;
+    }
+
+    /**
+     * Checks the schedule every minute, which isn't worth logging about.
+     */
+    @Override
+    protected Level getNormalLoggingLevel() {
+        return Level.FINE;
     }
     
     protected void execute(TaskListener listener) throws InterruptedException, IOException {
         try {
             if(disabled) {
-                LOGGER.warning("Disabled. Skipping execution");
+                if (!skipped) LOGGER.warning("Disabled. Skipping execution");
+                skipped = true;
                 return;
             }
+            skipped = false;
             
             this.listener = listener;
-            
-            while (new Date().getTime() - cal.getTimeInMillis() > 1000) {
-                try {
-                    checkTriggers(cal);
-                } catch (Throwable e) {
-                    e.printStackTrace();
+
+            Hudson inst = Hudson.getInstance();
+            MavenRepoCleanerProperty.DescriptorImpl d = (MavenRepoCleanerProperty.DescriptorImpl)inst.getDescriptor(MavenRepoCleanerProperty.class);
+            if (d == null) return;
+
+            long now = System.currentTimeMillis();
+            CronSchedule schedule;
+            try {
+                schedule = d.getSchedule();
+            } catch (ANTLRException e) {
+                if (invalidSpec == null || !invalidSpec.equals(d.getCronSpec())) {
+                    LOGGER.log(Level.WARNING, "Invalid schedule " + d.getCronSpec(), e);
                 }
-                
-                cal.add(Calendar.MINUTE, 1);
+                invalidSpec = d.getCronSpec();
+                return;
+            }
+            invalidSpec = null;
+            if (schedule != this.schedule) {
+                // started, or reconfigured: only fire from now on
+                this.schedule = schedule;
+                nextFire = schedule.next(now);
+            }
+            if (now < nextFire) {
+                resume(inst, d, now);
+                return;
+            }
+
+            // however many fires were missed while the controller was busy or down, run once
+            nextFire = schedule.next(now);
+            try {
+                clean(inst, d, now);
+            } catch (Throwable e) {
+                e.printStackTrace();
             }
         } finally {
             this.listener = null;
         }
     }
     
+    /**
+     * Cleans up right away if the schedule fires at the given time.
+     */
     public void checkTriggers(final Calendar cal) throws ANTLRException, IOException, InterruptedException  {
         Hudson inst = Hudson.getInstance();
 
         MavenRepoCleanerProperty.DescriptorImpl d = (MavenRepoCleanerProperty.DescriptorImpl)inst.getDescriptor(MavenRepoCleanerProperty.class);
 
-        if (d!=null) {
-            if (d.getCronTab() != null) {
-                if (d.getCronTab().check(cal)) {
-                    for (Node n : inst.getNodes())
-                        if (n instanceof Slave) process((Slave)n, d.getExpirationDays());
-                    
-                    process(inst, d.getExpirationDays());
-                }
-            }
+        if (d!=null && d.getCronTab().check(cal)) {
+            clean(inst, d, new Date().getTime());
         }
     }
-    
+
+    private void clean(Hudson inst, MavenRepoCleanerProperty.DescriptorImpl d, long now) throws InterruptedException {
+        Map<String, Policy> policies = policies(inst, d);
+        List<Node> nodes = nodes(inst);
+        List<String> names = new ArrayList<String>();
+        for (Node n : nodes)
+            names.add(key(n));
+        CleanupCheckpoints.get().retain(names);
+        RepositoryRegistry.get().retain(names);
+        DiskUsage.get().retain(names);
+
+        process(nodes, policies, now, d);
+    }
+
+    /**
+     * Between fires, hands the nodes that didn't complete their run the same run again, once they are online,
+     * and at most every {@link #resumeDelay} minutes.
+     */
+    private void resume(Hudson inst, MavenRepoCleanerProperty.DescriptorImpl d, long now) throws InterruptedException {
+        CleanupCheckpoints checkpoints = CleanupCheckpoints.get();
+        List<Node> nodes = new ArrayList<Node>();
+        for (Node n : nodes(inst)) {
+            CleanupCheckpoints.Run run = checkpoints.get(key(n));
+            if (run == null || run.attempts >= CleanupCheckpoints.maxAttempts
+                    || now - run.attempted < TimeUnit.MINUTES.toMillis(resumeDelay)) continue;
+            Computer c = n.toComputer();
+            if (n instanceof Slave && (c == null || !c.isOnline())) continue;
+            nodes.add(n);
+        }
+        if (!nodes.isEmpty()) {
+            process(nodes, policies(inst, d), now, d);
+        }
+    }
+
+    private static List<Node> nodes(Hudson inst) {
+        List<Node> nodes = new ArrayList<Node>();
+        for (Node n : inst.getNodes())
+            if (n instanceof Slave) nodes.add(n);
+        nodes.add(inst);
+        return nodes;
+    }
+
+    /**
+     * Name a node is known by in the {@link CleanupCheckpoints} and the {@link CleanupHistory}.
+     */
+    private static String key(Node n) {
+        return n instanceof Hudson ? "" : n.getNodeName();
+    }
+
     public static void invoke() {
         theInstance.run();
     }
 
-    private void process(Hudson h, int expirationDays) throws IOException, InterruptedException {
-        File jobs = new File(h.getRootDir(), "jobs");
-        File[] dirs = jobs.listFiles(DIR_FILTER);
-        if(dirs==null)      return;
-        for (File dir : dirs) {
-            FilePath repo = new FilePath(new File(new File(dir, "workspace"), ".repository"));
-            if(shouldBeDeleted(dir.getName(),repo,h,expirationDays)) {
-                delete(repo);
+    /**
+     * Decides, once per run, what each job allows to be done with its repository. Top level items are known by
+     * the name of their directory, jobs in folders by their full name, as the {@link RepositoryRegistry} knows
+     * them.
+     */
+    private Map<String, Policy> policies(Hudson h, MavenRepoCleanerProperty.DescriptorImpl d) {
+        Map<String, Policy> policies = new HashMap<String, Policy>();
+        for (TopLevelItem item : h.getItems()) {
+            policies.put(item.getName(), policy(item, d));
+        }
+        for (AbstractProject<?, ?> p : h.getAllItems(AbstractProject.class)) {
+            if (!policies.containsKey(p.getFullName())) policies.put(p.getFullName(), policy(p, d));
+        }
+        return policies;
+    }
+
+    /**
+     * Start time of the earliest running build of each job, by the name {@link #policies} know it by.
+     */
+    private static Map<String, Long> started(Hudson h) {
+        Map<String, Long> started = new HashMap<String, Long>();
+        for (Computer c : h.getComputers()) {
+            for (Executor e : c.getAllExecutors()) {
+                Queue.Executable executable = e.getCurrentExecutable();
+                if (!(executable instanceof AbstractBuild)) continue;
+                // module builds resolve into the repository of their module set
+                AbstractBuild<?, ?> build = ((AbstractBuild<?, ?>) executable).getRootBuild();
+                started.merge(build.getParent().getFullName(), build.getStartTimeInMillis(), Math::min);
             }
         }
+        return started;
     }
 
-    private boolean shouldBeDeleted(String jobName, FilePath dir, Node n, int expirationDays) throws IOException, InterruptedException {
-        // TODO: the use of remoting is not optimal.
-        // One remoting can execute "exists", "lastModified", and "delete" all at once.
-        TopLevelItem item = Hudson.getInstance().getItem(jobName);
-        if(item==null) {
-            // no such project anymore
-            LOGGER.fine("Repository directory "+dir+" is not owned by any project");
-            return true;
+    private Policy policy(Item item, MavenRepoCleanerProperty.DescriptorImpl d) {
+        String jobName = item.getName();
+        if (!(item instanceof AbstractProject)) {
+            LOGGER.fine("Going to delete repository directory of " + jobName);
+            return Policy.DELETE;
         }
+        AbstractProject p = (AbstractProject) item;
 
-        if(!dir.exists())
-            return false;
-        
-        long now = new Date().getTime();
+        MavenRepoCleanerProperty mrcp = (MavenRepoCleanerProperty)p.getProperty(MavenRepoCleanerProperty.class);
 
-        // If the marker file doesn't already exist, create it.
-        FilePath markerFile = new FilePath(dir, ".cleanupMarker");
-        if (!markerFile.exists()) {
-            // Giving marker file a modification time of now - 5 minutes, so that a check tomorrow
-            // will show it greater than 24 hours old.
-            markerFile.touch(now-(5*MIN));
+        if (mrcp!=null) {
+            if (mrcp.isNotOnThisProject()) {
+                LOGGER.fine("Repository cleaning disabled for job " + jobName);
+                return Policy.KEEP;
+            }
+        } else {
+            LOGGER.fine("No MavenRepoCleanerProperty so Repository cleaning disabled for job " + jobName);
+            return Policy.KEEP;
         }
 
-        
-        
-        if (item instanceof AbstractProject) {
-            AbstractProject p = (AbstractProject) item;
-            
-            MavenRepoCleanerProperty mrcp = (MavenRepoCleanerProperty)p.getProperty(MavenRepoCleanerProperty.class);
+        if (p.isBuilding()) {
+            LOGGER.fine("Repository directory of " + jobName + " belongs to a currently running build, so deletion is vetoed.");
+            return d.isCleanBuilding() ? Policy.EVICT_COLD : Policy.KEEP;
+        }
 
-            if (mrcp!=null) {
-                if (mrcp.isNotOnThisProject()) {
-                    LOGGER.fine("Repository cleaning disabled for job " + jobName);
-                    return false;
+        // If expirationStyle is 1, compare against directory's last modified time.
+        if (d.getExpirationStyle()==1) {
+            return Policy.EXPIRE_SINCE_CHANGED;
+        }
+        // If expirationStyle is 0, compare against marker file's last modified time.
+        else if (d.getExpirationStyle()==0) {
+            return Policy.EXPIRE_SINCE_ADDED;
+        }
+        // If expirationStyle is 2, we're deleting regardless.
+        LOGGER.fine("Repository directory of " + jobName + " should be deleted regardless of age");
+        return Policy.DELETE;
+    }
+
+    /**
+     * Processes the nodes concurrently, at most {@link #maxConcurrentNodes} at a time and each one for at most
+     * {@link #nodeTimeout} minutes, so that a slow or hung node doesn't hold the others back. The output of each
+     * node is written to the listener as one section once that node is done.
+     * <p>
+     * Nodes are spread over the {@link MavenRepoCleanerProperty.DescriptorImpl#getJitterMinutes() jitter window},
+     * each one starting at an offset derived from its name, so that the same node always starts at the same time.
+     * Among those starting together, the nodes whose fullest device the {@link DiskUsage} knows as the fullest go
+     * first.
+     */
+    private void process(List<Node> nodes, final Map<String, Policy> policies, final long now, final MavenRepoCleanerProperty.DescriptorImpl d) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(maxConcurrentNodes, nodes.size())),
+                new NamingThreadFactory(new DaemonThreadFactory(), "maven-repo-cleanup"));
+        DiskUsage usage = DiskUsage.get();
+        Map<String, Double> fullness = new HashMap<String, Double>();
+        for (Node n : nodes) {
+            fullness.put(key(n), usage.fullness(key(n)));
+        }
+        nodes = new ArrayList<Node>(nodes);
+        nodes.sort((a, b) -> Double.compare(fullness.get(key(b)), fullness.get(key(a))));
+        List<ScheduledFuture<?>> delayed = new ArrayList<ScheduledFuture<?>>();
+        try {
+            final CompletionService<byte[]> completion = new ExecutorCompletionService<byte[]>(executor);
+            for (final Node n : nodes) {
+                long offset = jitter(key(n), d.getJitterMinutes());
+                if (offset == 0) {
+                    completion.submit(() -> process(n, policies, now, d));
+                } else {
+                    delayed.add(Timer.get().schedule(() -> completion.submit(() -> process(n, policies, now, d)),
+                            offset, TimeUnit.SECONDS));
                 }
-            } else {
-                LOGGER.fine("No MavenRepoCleanerProperty so Repository cleaning disabled for job " + jobName);
-                return false;
             }
-            
-            if (p.isBuilding()) {
-                LOGGER.fine("Repository directory " + dir + " belongs to a currently running build, so deletion is vetoed.");
-                return false;
+            for (int i = 0; i < nodes.size(); i++) {
+                try {
+                    byte[] log = completion.take().get();
+                    listener.getLogger().write(log, 0, log.length);
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace(listener.error("Failed to clean up a node"));
+                }
+            }
+        } finally {
+            for (ScheduledFuture<?> future : delayed) {
+                future.cancel(false);
             }
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Offset, in seconds, a node starts at within the jitter window.
+     */
+    static long jitter(String nodeName, int jitterMinutes) {
+        if (jitterMinutes <= 0) return 0;
+        return (nodeName.hashCode() & Integer.MAX_VALUE) % (jitterMinutes * 60L);
+    }
 
-            MavenRepoCleanerProperty.DescriptorImpl d = (MavenRepoCleanerProperty.DescriptorImpl)mrcp.getDescriptor();
+    /**
+     * Processes one node, cancelling it after {@link #nodeTimeout} minutes. A node that didn't complete its run
+     * before is handed that run again, otherwise a new one with the given reference time and policies; the run is
+     * only recorded as completed once the node is done with it.
+     * <p>
+     * The node first waits for the devices its repositories live on, as far as the {@link DiskUsage} knows, to be
+     * free of other scheduled clean ups. Waiting doesn't count towards the timeout.
+     *
+     * @return the log of the node
+     */
+    private byte[] process(Node n, Map<String, Policy> policies, long now, MavenRepoCleanerProperty.DescriptorImpl d) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        TaskListener nodeListener = new StreamTaskListener(buffer, StandardCharsets.UTF_8);
+        String name = n instanceof Hudson ? "master" : n.getNodeName();
 
-            // If expirationStyle is 1, compare against directory's last modified time.
-            if (d.getExpirationStyle()==1) {
-                // if younger than the given range, keep it
-                if(dir.lastModified() + expirationDays * DAY > now) {
-                    LOGGER.fine("Repository directory "+dir+" is only "+ Util.getTimeSpanString(now-dir.lastModified())+" old, so not deleting");
-                    return false;
+        CleanupRecord record = new CleanupRecord(key(n), null, System.currentTimeMillis());
+        CleanupCheckpoints.Run run = CleanupCheckpoints.get().start(key(n), now, policies);
+        if (run.now != now) {
+            nodeListener.getLogger().println("Resuming the run of " + new Date(run.now) + " on " + name
+                    + ", attempt " + run.attempts);
+        }
+        List<Semaphore> permits = new ArrayList<Semaphore>();
+        try {
+            // in name order, so that nodes sharing several devices don't wait on each other
+            for (String device : DiskUsage.get().devices(key(n))) {
+                Semaphore permit = DiskUsage.get().permit(device);
+                if (!permit.tryAcquire()) {
+                    nodeListener.getLogger().println("Waiting for other clean ups of " + device);
+                    permit.acquire();
                 }
+                permits.add(permit);
             }
-            // If expirationStyle is 0, compare against marker file's last modified time.
-            else if (d.getExpirationStyle()==0) {
-                // if younger than the given range, keep it
-                if(markerFile.lastModified() + expirationDays * DAY > now) {
-                    LOGGER.fine("Repository directory marker file "+markerFile+" is only "+ Util.getTimeSpanString(now-markerFile.lastModified())+" old, so not deleting");
-                    return false;
-                }
+        } catch (InterruptedException e) {
+            for (Semaphore permit : permits) {
+                permit.release();
             }
-            // If expirationStyle is 2, just return true - we're deleting regardless.
-            else if (d.getExpirationStyle()==2) {
-                LOGGER.fine("Repository directory "+dir+" should be deleted regardless of age");
-                return true;
+            record.failed();
+            nodeListener.error("Interrupted while waiting to clean up " + name);
+            nodeListener.getLogger().flush();
+            record.finished(System.currentTimeMillis() - record.getTimestamp());
+            CleanupHistory.get().add(record);
+            return buffer.toByteArray();
+        }
+        final Thread worker = Thread.currentThread();
+        ScheduledFuture<?> watchdog = Timer.get().schedule(worker::interrupt, nodeTimeout, TimeUnit.MINUTES);
+        try {
+            boolean done;
+            if (n instanceof Slave) {
+                done = process((Slave) n, run.policies(policies), run.now, d, record, nodeListener);
+            } else {
+                done = process((Hudson) n, run.policies(policies), run.now, d, record, nodeListener);
+            }
+            if (done) {
+                CleanupCheckpoints.get().completed(key(n));
             }
+        } catch (InterruptedException e) {
+            record.failed();
+            if (watchdog.isDone()) {
+                nodeListener.error("Gave up on " + name + " after " + nodeTimeout + " minutes");
+            } else {
+                nodeListener.error("Interrupted while cleaning up " + name);
+            }
+        } catch (IOException e) {
+            record.failed();
+            e.printStackTrace(nodeListener.error("Failed on " + name));
+        } finally {
+            watchdog.cancel(false);
+            Thread.interrupted();
+            for (Semaphore permit : permits) {
+                permit.release();
+            }
+            nodeListener.getLogger().flush();
+            record.finished(System.currentTimeMillis() - record.getTimestamp());
+            CleanupHistory.get().add(record);
         }
+        return buffer.toByteArray();
+    }
 
-        LOGGER.fine("Going to delete repository directory "+dir);
+    /**
+     * @return whether the node is done with the run
+     */
+    private boolean process(Hudson h, Map<String, Policy> policies, long now, MavenRepoCleanerProperty.DescriptorImpl d, CleanupRecord record, TaskListener listener) throws IOException, InterruptedException {
+        listener.getLogger().println("Scanning master");
+        FilePath jobs = new FilePath(new File(h.getRootDir(), "jobs"));
+        process("", jobs, dataDirectory(h), "workspace/.repository", policies, now, d, record, listener);
         return true;
     }
 
-    private void process(Slave s, int expirationDays) throws InterruptedException {
+    /**
+     * @return whether the node is done with the run, not when it is offline
+     */
+    private boolean process(Slave s, Map<String, Policy> policies, long now, MavenRepoCleanerProperty.DescriptorImpl d, CleanupRecord record, TaskListener listener) throws IOException, InterruptedException {
         listener.getLogger().println("Scanning "+s.getNodeName());
 
-        try {
-            FilePath path = s.getWorkspaceRoot();
-            if(path==null)  return;
+        FilePath path = s.getWorkspaceRoot();
+        if(path==null)  return false;
 
-            List<FilePath> dirs = path.list(DIR_FILTER);
-            if(dirs ==null) return;
-            for (FilePath dir : dirs) {
-                FilePath repo = new FilePath(dir, ".repository");
-                if(shouldBeDeleted(dir.getName(),repo,s,expirationDays))
-                    delete(repo);
-            }
-        } catch (IOException e) {
-            e.printStackTrace(listener.error("Failed on "+s.getNodeName()));
-        }
+        process(s.getNodeName(), path, path, ".repository", policies, now, d, record, listener);
+        return true;
     }
 
-    private void delete(FilePath dir) throws InterruptedException {
-        try {
-            listener.getLogger().println("Deleting "+dir);
-            dir.deleteRecursive();
-        } catch (IOException e) {
-            e.printStackTrace(listener.error("Failed to delete "+dir));
+    /**
+     * Directory the trash and the {@link WarmCache} of a node are kept in: the workspace root of an agent, and
+     * <tt>maven-repo-cleaner</tt> under <tt>JENKINS_HOME</tt> on the controller, rather than among the job
+     * directories it would have to tell from jobs.
+     *
+     * @return <tt>null</tt> for nodes without a workspace root
+     */
+    static FilePath dataDirectory(Node n) {
+        if (n instanceof Jenkins) {
+            return new FilePath(new File(((Jenkins) n).getRootDir(), "maven-repo-cleaner"));
         }
+        return n instanceof Slave ? ((Slave) n).getWorkspaceRoot() : null;
     }
 
+    /**
+     * Expires the repositories the {@link RepositoryRegistry} knows on a node in one remoting call, along with those
+     * of all the job directories under <tt>root</tt> when the registry is due for a reconciliation, and adds its
+     * outcome to the record of the node.
+     */
+    private void process(String node, FilePath root, FilePath data, String repository, Map<String, Policy> policies, long now, MavenRepoCleanerProperty.DescriptorImpl d, CleanupRecord record, TaskListener listener) throws IOException, InterruptedException {
+        RepositoryRegistry registry = RepositoryRegistry.get();
+        boolean discover = registry.isDiscoveryDue(node, System.currentTimeMillis());
+        Map<String, Policy> targets = new HashMap<String, Policy>();
+        // as late as possible, for the builds started since the policies were decided
+        Map<String, Long> started = started(Hudson.getInstance());
+        for (Map.Entry<String, String> e : registry.repositories(node).entrySet()) {
+            Policy policy = RepositoryRegistry.SHARED.equals(e.getValue()) ? Policy.KEEP : policies.get(e.getValue());
+            targets.put(e.getKey(), policy == null ? Policy.ORPHANED : policy);
+            Long since = started.get(e.getValue());
+            if (since != null) started.put(e.getKey(), since);
+        }
+        if (discover) {
+            listener.getLogger().println("Discovering the repositories under " + root.getRemote());
+        }
 
-    private static class DirectoryFilter implements FileFilter, Serializable {
-        public boolean accept(File f) {
-            return f.isDirectory();
+        RepositoryExpirationCallable.Summary summary =
+            root.act(new RepositoryExpirationCallable(policies, repository, data.getRemote(), targets, started, discover, now,
+                d.getExpirationDays() * DAY, d.getNodeQuota() * MavenRepoCleanerPostBuildTask.GIGABYTE,
+                d.isDeduplicate(), d.isDeduplicateHardlinks(), d.getWarmCacheSize() * MavenRepoCleanerPostBuildTask.GIGABYTE, d.getThrottle()));
+        registry.update(node, discover ? summary.discovered : null, summary.missing, System.currentTimeMillis());
+        List<String> removed = new ArrayList<String>(summary.deleted);
+        removed.addAll(summary.missing);
+        DiskUsage.get().update(node, summary.usage, summary.stores, removed);
+        record.add(summary);
+        if (summary.resumed > 0) {
+            listener.getLogger().println("Skipped " + summary.resumed + " job directories done by a previous attempt");
+        }
+        for (String dir : summary.deleted) {
+            listener.getLogger().println("Deleting "+dir);
         }
-        private static final long serialVersionUID = 1L;
+        if (summary.cold > 0) {
+            listener.getLogger().println("Evicted " + summary.cold + " artifacts unused for " + d.getExpirationDays()
+                    + " days from the repositories of running builds ("
+                    + Functions.humanReadableByteSize(summary.coldBytes) + ")");
+        }
+        if (summary.evicted > 0) {
+            listener.getLogger().println("Evicted " + summary.evicted + " least recently used artifacts ("
+                    + Functions.humanReadableByteSize(summary.evictedBytes) + ") to fit in the quota");
+        }
+        if (summary.cached > 0) {
+            listener.getLogger().println("Cached " + summary.cached + " release versions used across repositories ("
+                    + Functions.humanReadableByteSize(summary.cachedBytes) + "), seeded " + summary.seeded
+                    + " expired repositories with them");
+        }
+        if (summary.linked > 0) {
+            listener.getLogger().println("Replaced " + summary.linked + " duplicate artifacts with clones or hardlinks ("
+                    + Functions.humanReadableByteSize(summary.linkedBytes) + ")");
+        }
+        for (String failure : summary.failures) {
+            listener.error(failure);
+        }
+        LOGGER.fine("Scanned " + summary.scanned + " repositories under " + root + ", deleted " + summary.deleted.size()
+                + ", kept " + summary.kept);
     }
 
-    private static final FileFilter DIR_FILTER = new DirectoryFilter();
-
     private static final Logger LOGGER = Logger.getLogger(MavenRepoCleanerThread.class.getName());
 
     /**
      * Can be used to disable workspace clean up.
      */
     public static boolean disabled = Boolean.getBoolean(MavenRepoCleanerThread.class.getName()+".disabled");
+
+    /**
+     * Maximum number of nodes cleaned up at the same time.
+     */
+    public static int maxConcurrentNodes = Integer.getInteger(MavenRepoCleanerThread.class.getName()+".maxConcurrentNodes", 8);
+
+    /**
+     * Minutes a node is given before its clean up is cancelled.
+     */
+    public static long nodeTimeout = Long.getLong(MavenRepoCleanerThread.class.getName()+".nodeTimeout", 60);
+
+    /**
+     * Minutes between two attempts at resuming the run a node didn't complete, in between scheduled runs.
+     */
+    public static long resumeDelay = Long.getLong(MavenRepoCleanerThread.class.getName()+".resumeDelay", 15);
 }
@@ -0,0 +1,421 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single pass scan engine built on {@link Files#walkFileTree}.
+ * <p>
+ * Every directory is listed once and every entry is stat'ed once, by the walk itself. Artifacts are evaluated
+ * when their directory is left, from the attributes collected on the way, and directories holding nothing but
+ * metadata afterwards are pruned bottom-up.
+ * <p>
+ * When the cleaner runs incrementally, leaf directories its {@link ScanIndex} shows as unchanged and holding
+ * nothing old enough are skipped without being listed, and the index of the next run is recorded along the way.
+ * <p>
+ * Under a size quota, every artifact kept is handed to the cleaner's {@link QuotaEviction} once the walk is over.
+ * With a {@link SnapshotRetention}, old timestamped builds are removed from <tt>-SNAPSHOT</tt> directories before
+ * their artifacts are evaluated.
+ * <p>
+ * With {@link ArtifactLocks}, the lock of a directory is taken before anything is removed from it, and directories
+ * a build holds are left as they are, and out of the index so that the next run looks at them again. The
+ * <tt>.locks</tt> directory itself is never walked. Directories builds running with the repository may have
+ * resolved since they started are kept whole, locked or not, see {@link RepositoryCleaner#setInUseSince}.
+ * <p>
+ * With a {@link ChecksumVerifier}, the artifacts kept that haven't been verified as they are are queued for it.
+ * <p>
+ * The size of every artifact left, walked or skipped, is added to the usage of the repository in the result.
+ */
+class NioRepositoryWalker extends SimpleFileVisitor<Path> {
+
+    static final List<String> METADATA =
+        Arrays.asList("_maven.repositories", "maven-metadata.xml", "maven-metadata.xml.md5", "maven-metadata.xml.sha1");
+
+    private final GavResolver gavs = new GavResolver();
+    private final RepositoryCleaner cleaner;
+    private final CleanupResult result;
+    private final List<QuotaEviction.Candidate> candidates;
+    private final SnapshotRetention snapshots;
+    private final IoThrottle throttle;
+    private final ChecksumVerifier verifier;
+    private final String root;
+    private final Deque<DirectoryState> stack = new ArrayDeque<DirectoryState>();
+    private String startLocation;
+    private boolean pruneStart;
+    private boolean startRetained;
+
+    /**
+     * @param cleaner decides which artifacts get removed
+     * @param result  records every removed artifact
+     */
+    NioRepositoryWalker(RepositoryCleaner cleaner, CleanupResult result) {
+        this.cleaner = cleaner;
+        this.result = result;
+        this.candidates = cleaner.getQuota() == null ? null : new ArrayList<QuotaEviction.Candidate>();
+        this.snapshots = cleaner.getSnapshotRetention();
+        this.throttle = cleaner.getThrottle();
+        this.verifier = cleaner.getVerifier();
+        this.root = cleaner.getRoot();
+    }
+
+    public void walk(Path repository) throws IOException {
+        walk(repository, "", false);
+    }
+
+    /**
+     * Walks a sub-tree of the repository.
+     *
+     * @param dir      directory to start from
+     * @param location location of <tt>dir</tt> relative to the repository root, <tt>""</tt> for the root itself
+     * @param prune    whether <tt>dir</tt> itself can be removed once empty
+     * @return whether <tt>dir</tt> still exists after the walk
+     */
+    boolean walk(Path dir, String location, boolean prune) throws IOException {
+        this.startLocation = location;
+        this.pruneStart = prune;
+        this.startRetained = true;
+        Files.walkFileTree(dir, this);
+        flush();
+        return startRetained;
+    }
+
+    /**
+     * Walks a sub-tree of the repository whose start directory has already been listed, without listing it again.
+     *
+     * @param attrs   attributes of <tt>dir</tt>
+     * @param entries entries of <tt>dir</tt>, and their attributes
+     * @see #walk(Path, String, boolean)
+     */
+    boolean walk(Path dir, String location, boolean prune, BasicFileAttributes attrs,
+                 Map<Path, BasicFileAttributes> entries) throws IOException {
+        this.startLocation = location;
+        this.pruneStart = prune;
+        this.startRetained = true;
+        stack.push(new DirectoryState(location, attrs.lastModifiedTime().toMillis()));
+        for (Map.Entry<Path, BasicFileAttributes> entry : entries.entrySet()) {
+            if (entry.getValue().isDirectory()) {
+                Files.walkFileTree(entry.getKey(), this);
+            } else {
+                visitFile(entry.getKey(), entry.getValue());
+            }
+        }
+        postVisitDirectory(dir, null);
+        flush();
+        return startRetained;
+    }
+
+    /**
+     * Skips a directory without listing it when the index shows it unchanged and holding nothing old enough, as
+     * the walk does below its start directory.
+     *
+     * @param attrs attributes of <tt>dir</tt>
+     * @return whether it was skipped
+     */
+    boolean skip(Path dir, String location, BasicFileAttributes attrs) {
+        boolean skipped = unchanged(dir, location, attrs.lastModifiedTime().toMillis());
+        flush();
+        return skipped;
+    }
+
+    private void flush() {
+        if (candidates != null) {
+            cleaner.getQuota().addAll(candidates);
+            candidates.clear();
+        }
+    }
+
+    @Override
+    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+        throttle.stat(1);
+        DirectoryState parent = stack.peek();
+        String location = parent == null ? startLocation : parent.location + '/' + dir.getFileName();
+        long modified = attrs.lastModifiedTime().toMillis();
+        if (parent != null && stack.size() == 1 && startLocation.isEmpty()
+                && ArtifactLocks.LOCKS.equals(dir.getFileName().toString())) {
+            parent.retained++;
+            return FileVisitResult.SKIP_SUBTREE;
+        }
+        if (parent != null) {
+            parent.directories++;
+            if (unchanged(dir, location, modified)) {
+                parent.retained++;
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+        }
+        stack.push(new DirectoryState(location, modified));
+        return FileVisitResult.CONTINUE;
+    }
+
+    /**
+     * Carries a directory the index shows unchanged and holding nothing old enough over to the next index.
+     *
+     * @return whether it doesn't need to be listed
+     */
+    private boolean unchanged(Path dir, String location, long modified) {
+        // its artifacts are no candidates for the quota
+        if (cleaner.isInUse(location, modified)) return false;
+        // the number of builds to keep may have changed since
+        boolean retained = snapshots != null && SnapshotRetention.isSnapshotDirectory(dir);
+        ScanIndex.Entry unchanged = cleaner.getPreviousIndex() == null || retained ? null
+            : cleaner.getPreviousIndex().unchanged(location, modified, cleaner.getOlderThan(), verifier != null);
+        if (unchanged == null) return false;
+        cleaner.getNextIndex().put(location, unchanged);
+        result.retained(root, unchanged.bytes());
+        for (int i = 0; candidates != null && i < unchanged.size; i++) {
+            candidates.add(new QuotaEviction.Candidate(cleaner.getRepository(), dir, location,
+                unchanged.names[i], unchanged.lastUses[i], unchanged.sizes[i]));
+        }
+        return true;
+    }
+
+    @Override
+    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        throttle.stat(1);
+        stack.peek().files.put(file.getFileName().toString(), attrs);
+        result.visited(1);
+        return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFileFailed(Path file, IOException exc) {
+        // Vanished or unreadable entry: never prune the directory that holds it
+        result.error();
+        DirectoryState current = stack.peek();
+        if (current != null) {
+            current.retained++;
+        }
+        return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+        DirectoryState state = stack.pop();
+        try {
+            return leave(dir, exc, state);
+        } finally {
+            if (state.lock != null) state.lock.close();
+        }
+    }
+
+    private FileVisitResult leave(Path dir, IOException exc, DirectoryState state) throws IOException {
+        DirectoryState parent = stack.peek();
+        if (exc != null) {
+            // listing failed half way, keep everything
+            result.error();
+            if (parent != null) parent.retained++;
+            return FileVisitResult.CONTINUE;
+        }
+
+        if (snapshots != null && SnapshotRetention.isSnapshotDirectory(dir) && lock(state)
+                && snapshots.retain(dir, state.location, state.files, result, throttle)) {
+            state.changed = true;
+        }
+
+        long olderThan = cleaner.getOlderThan();
+        boolean artifacts = gavs.enter(state.location);
+        ScanIndex.Entry previous = verifier == null || cleaner.getPreviousIndex() == null ? null
+            : cleaner.getPreviousIndex().get(state.location);
+        for (Map.Entry<String, BasicFileAttributes> entry : state.files.entrySet()) {
+            String fileName = entry.getKey();
+            if (entry.getValue() == null) continue; // already removed along with its artifact
+            if (METADATA.contains(fileName)) continue;
+            if (fileName.endsWith(".sha1") || fileName.endsWith(".md5")) {
+                // orphan checksums are kept, the ones of removed artifacts are processed with them
+                continue;
+            }
+
+            String groupId = artifacts ? gavs.groupId(fileName) : null;
+            if (groupId == null || !entry.getValue().isRegularFile()) {
+                state.retained++;
+                continue;
+            }
+            long lastUse = cleaner.lastUse(state.location, entry.getValue());
+            boolean inUse = cleaner.isInUse(state.location,
+                Math.max(state.modified, entry.getValue().lastModifiedTime().toMillis()));
+            if (lastUse >= olderThan || inUse) {
+                state.retained++;
+                result.retained(root, entry.getValue().size());
+                state.artifact(fileName, lastUse, entry.getValue().size(), verifier == null ? ScanIndex.Entry.UNVERIFIED
+                    : verifier.check(dir, state.location, fileName, entry.getValue(), state.files, previous));
+                if (candidates != null && !inUse) {
+                    candidates.add(new QuotaEviction.Candidate(cleaner.getRepository(), dir, state.location,
+                        fileName, lastUse, entry.getValue().size()));
+                }
+                continue;
+            }
+
+            if (!lock(state)) {
+                // a running build holds the directory
+                state.retained++;
+                result.retained(root, entry.getValue().size());
+                continue;
+            }
+
+            // This artifact hasn't been accessed during build
+            long deleting = System.nanoTime();
+            if (!throttle.delete(dir.resolve(fileName), entry.getValue().size())) {
+                result.deleted(System.nanoTime() - deleting);
+                result.error();
+                state.retained++;
+                result.retained(root, entry.getValue().size());
+                continue;
+            }
+            state.changed = true;
+            long size = entry.getValue().size();
+            entry.setValue(null);
+            for (String checksum : new String[] {fileName + ".md5", fileName + ".sha1"}) {
+                BasicFileAttributes attrs = state.files.get(checksum);
+                if (attrs != null && throttle.delete(dir.resolve(checksum), attrs.size())) {
+                    size += attrs.size();
+                    state.files.put(checksum, null);
+                }
+            }
+            result.deleted(System.nanoTime() - deleting);
+            result.removed(groupId, state.location + '/' + fileName, size);
+        }
+
+        // orphan or undeletable checksums still hold the directory
+        for (Map.Entry<String, BasicFileAttributes> entry : state.files.entrySet()) {
+            String fileName = entry.getKey();
+            if (entry.getValue() != null && !METADATA.contains(fileName)
+                    && (fileName.endsWith(".sha1") || fileName.endsWith(".md5"))) {
+                state.retained++;
+            }
+        }
+
+        if (state.retained > 0 || (parent == null && !pruneStart)) {
+            // non empty, or the repository root itself
+            if (parent != null) parent.retained++;
+            index(dir, state);
+            return FileVisitResult.CONTINUE;
+        }
+
+        if (!state.files.isEmpty() && !lock(state)) {
+            if (parent != null) parent.retained++;
+            return FileVisitResult.CONTINUE;
+        }
+        long deleting = System.nanoTime();
+        for (Map.Entry<String, BasicFileAttributes> entry : state.files.entrySet()) {
+            if (entry.getValue() != null) throttle.delete(dir.resolve(entry.getKey()), entry.getValue().size());
+        }
+        boolean deleted = throttle.delete(dir, 0);
+        result.deleted(System.nanoTime() - deleting);
+        if (parent == null) {
+            startRetained = !deleted;
+        } else if (!deleted) {
+            parent.retained++;
+        }
+        return FileVisitResult.CONTINUE;
+    }
+
+    /**
+     * Takes the lock of a directory before removing anything from it, when the cleaner uses {@link ArtifactLocks}.
+     *
+     * @return whether anything can be removed
+     */
+    private boolean lock(DirectoryState state) throws IOException {
+        if (!cleaner.isArtifactLocking() || state.lock != null) return true;
+        if (state.busy) return false;
+        state.lock = ArtifactLocks.tryLock(cleaner.getRepository(), state.location);
+        state.busy = state.lock == null;
+        return !state.busy;
+    }
+
+    /**
+     * Records a surviving leaf directory in the index of the next run.
+     */
+    private void index(Path dir, DirectoryState state) {
+        if (cleaner.getNextIndex() == null || state.directories > 0 || state.busy) return;
+        long modified = state.modified;
+        if (state.changed) {
+            try {
+                modified = Files.getLastModifiedTime(dir).toMillis();
+            } catch (IOException e) {
+                return;
+            }
+        }
+        cleaner.getNextIndex().put(state.location, state.toIndexEntry(modified));
+    }
+
+    /**
+     * Removes a directory, and then its parents, as long as they hold nothing but metadata.
+     *
+     * @param root repository root, never removed, nor modified as far as its modification time goes
+     */
+    static void prune(Path dir, Path root, IoThrottle throttle) throws IOException {
+        for (Path current = dir; current != null && current.startsWith(root) && !current.equals(root);
+                current = current.getParent()) {
+            List<Path> metadata = new ArrayList<Path>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(current)) {
+                for (Path entry : entries) {
+                    if (!METADATA.contains(entry.getFileName().toString())) return;
+                    metadata.add(entry);
+                }
+            } catch (IOException e) {
+                return;
+            }
+            for (Path entry : metadata) {
+                throttle.delete(entry, 0);
+            }
+            // repositories expire by the modification time of their root, which only builds are to change
+            FileTime modified = root.equals(current.getParent()) ? Files.getLastModifiedTime(root) : null;
+            if (!throttle.delete(current, 0)) return;
+            if (modified != null) Files.setLastModifiedTime(root, modified);
+        }
+    }
+
+    /**
+     * What has been collected so far about a directory being walked.
+     */
+    private static final class DirectoryState {
+        /** Location relative to the repository root, <tt>/org/acme/lib/1.0</tt>. */
+        final String location;
+        /** Regular entries and their attributes, <tt>null</tt> once deleted. */
+        final Map<String, BasicFileAttributes> files = new LinkedHashMap<String, BasicFileAttributes>();
+        /** Modification time of the directory when the scan entered it. */
+        final long modified;
+        /** Number of entries, files or sub-directories, that survive this scan. */
+        int retained;
+        /** Number of sub-directories. */
+        int directories;
+        /** Whether the scan removed anything from the directory. */
+        boolean changed;
+        /** Lock held while removing from the directory. */
+        ArtifactLocks.Lock lock;
+        /** Whether a build holds the lock of the directory. */
+        boolean busy;
+        /** Surviving artifacts, their last use and size. */
+        private ScanIndex.Entry artifacts;
+
+        DirectoryState(String location, long modified) {
+            this.location = location;
+            this.modified = modified;
+        }
+
+        void artifact(String name, long lastUse, long size, long verified) {
+            if (artifacts == null) artifacts = new ScanIndex.Entry(modified, 4);
+            artifacts.add(name, lastUse, size, verified);
+        }
+
+        ScanIndex.Entry toIndexEntry(long modified) {
+            ScanIndex.Entry entry = new ScanIndex.Entry(modified, artifacts == null ? 1 : artifacts.size);
+            for (int i = 0; artifacts != null && i < artifacts.size; i++) {
+                entry.add(artifacts.names[i], artifacts.lastUses[i], artifacts.sizes[i], artifacts.verified[i]);
+            }
+            return entry;
+        }
+    }
+}
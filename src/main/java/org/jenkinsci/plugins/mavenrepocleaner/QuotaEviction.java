@@ -0,0 +1,246 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Size quota over one or more repositories.
+ * <p>
+ * Scans hand over every artifact they keep as a candidate. Once all the repositories are scanned, candidates are
+ * heapified by last use, in linear time, and the least recently used ones are polled and evicted until the
+ * artifacts left fit in the quota, so only evicted artifacts pay the logarithmic cost of the priority queue.
+ * <p>
+ * Artifacts hardlinked across repositories, by an {@link ArtifactDeduplicator}, take their space once. When the
+ * sizes scanned add up to more than the quota, candidates are stat'ed and grouped by inode: each file counts once,
+ * is evicted with all its links or not at all, and is never evicted when it is also linked from outside the
+ * candidates, which would free nothing.
+ */
+final class QuotaEviction {
+
+    private static final boolean UNIX = FileSystems.getDefault().supportedFileAttributeViews().contains("unix");
+
+    private final long quota;
+    private final IoThrottle throttle;
+    private final boolean locking;
+    private final List<Candidate> candidates = new ArrayList<Candidate>();
+    private long total;
+
+    /**
+     * @param quota    bytes the artifacts of all the repositories have to fit in
+     * @param throttle paces deletes
+     * @param locking  whether artifacts are only evicted under their {@link ArtifactLocks lock}
+     */
+    QuotaEviction(long quota, IoThrottle throttle, boolean locking) {
+        this.quota = quota;
+        this.throttle = throttle;
+        this.locking = locking;
+    }
+
+    /**
+     * Adds the artifacts a scan of a sub-tree kept.
+     */
+    synchronized void addAll(Collection<Candidate> scanned) {
+        for (Candidate candidate : scanned) {
+            total += candidate.size;
+        }
+        candidates.addAll(scanned);
+    }
+
+    /**
+     * Evicts least recently used artifacts until the rest fits in the quota.
+     */
+    synchronized void evict(CleanupResult result) throws IOException {
+        if (total <= quota) return;
+
+        long deleting = System.nanoTime();
+        Collection<Inode> inodes = inodes(result);
+        candidates.clear();
+        // hardlinked artifacts only take their space once
+        total = 0;
+        for (Inode inode : inodes) {
+            total += inode.size;
+        }
+        PriorityQueue<Inode> lru = new PriorityQueue<Inode>(total > quota ? inodes : Collections.<Inode>emptyList());
+        List<Candidate> touched = new ArrayList<Candidate>();
+        while (total > quota && !lru.isEmpty()) {
+            Inode inode = lru.poll();
+            // also linked from repositories out of the quota, evicting it would free nothing
+            if (inode.links.size() < inode.nlink) continue;
+            List<ArtifactLocks.Lock> locks = new ArrayList<ArtifactLocks.Lock>();
+            try {
+                for (Candidate candidate : inode.links) {
+                    ArtifactLocks.Lock lock = locking ? ArtifactLocks.tryLock(candidate.root, candidate.location)
+                        : ArtifactLocks.Lock.NONE;
+                    // in use by a running build, try the next one
+                    if (lock == null) break;
+                    locks.add(lock);
+                }
+                if (locks.size() < inode.links.size()) continue;
+                int evicted = 0;
+                for (Candidate candidate : inode.links) {
+                    if (evict(candidate, evicted == 0 ? inode.size : 0, result)) {
+                        evicted++;
+                        touched.add(candidate);
+                    }
+                }
+                if (evicted == inode.links.size()) total -= inode.size;
+            } finally {
+                for (ArtifactLocks.Lock lock : locks) {
+                    lock.close();
+                }
+            }
+        }
+
+        Set<Path> pruned = new HashSet<Path>();
+        for (Candidate candidate : touched) {
+            if (!pruned.add(candidate.dir)) continue;
+            ArtifactLocks.Lock lock = locking ? ArtifactLocks.tryLock(candidate.root, candidate.location)
+                : ArtifactLocks.Lock.NONE;
+            if (lock == null) continue;
+            try {
+                NioRepositoryWalker.prune(candidate.dir, candidate.root, throttle);
+            } finally {
+                lock.close();
+            }
+        }
+        result.deleted(System.nanoTime() - deleting);
+    }
+
+    /**
+     * Groups the candidates by inode. Only stats them once over the quota, which takes hardlinks into account.
+     */
+    private Collection<Inode> inodes(CleanupResult result) throws IOException {
+        Map<Object, Inode> inodes = new HashMap<Object, Inode>();
+        for (Candidate candidate : candidates) {
+            Path file = candidate.dir.resolve(candidate.name);
+            Object key;
+            long size;
+            int nlink;
+            throttle.stat(1);
+            try {
+                if (UNIX) {
+                    Map<String, Object> attrs = Files.readAttributes(file, "unix:dev,ino,nlink,size");
+                    key = attrs.get("dev") + ":" + attrs.get("ino");
+                    size = (Long) attrs.get("size");
+                    nlink = (Integer) attrs.get("nlink");
+                } else {
+                    key = file;
+                    size = Files.size(file);
+                    nlink = 1;
+                }
+            } catch (NoSuchFileException e) {
+                // evicted as corrupted meanwhile
+                continue;
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                result.error();
+                continue;
+            }
+            Inode inode = inodes.get(key);
+            if (inode == null) {
+                inode = new Inode(size, nlink);
+                inodes.put(key, inode);
+            }
+            inode.add(candidate);
+        }
+        return inodes.values();
+    }
+
+    /**
+     * Deletes an artifact and its checksums.
+     *
+     * @param size bytes its deletion frees, <tt>0</tt> when other links to it are left
+     * @return whether it could be deleted
+     */
+    private boolean evict(Candidate candidate, long size, CleanupResult result) throws IOException {
+        Path file = candidate.dir.resolve(candidate.name);
+        if (!throttle.delete(file, size)) {
+            result.error();
+            return false;
+        }
+        for (String checksum : new String[] {candidate.name + ".md5", candidate.name + ".sha1"}) {
+            Path path = candidate.dir.resolve(checksum);
+            try {
+                long checksumSize = Files.size(path);
+                if (throttle.delete(path, checksumSize)) size += checksumSize;
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                // no such checksum
+            }
+        }
+        result.removed(GavResolver.groupIdOf(candidate.location), candidate.location + '/' + candidate.name, size);
+        result.retained(candidate.root.toAbsolutePath().toString(), -candidate.size);
+        return true;
+    }
+
+    /**
+     * The links to a file among the candidates.
+     */
+    private static final class Inode implements Comparable<Inode> {
+        final long size;
+        /** Links to the file, in and out of the candidates. */
+        final int nlink;
+        final List<Candidate> links = new ArrayList<Candidate>(1);
+        /** Last use of the most recently used link. */
+        long lastUse = Long.MIN_VALUE;
+
+        Inode(long size, int nlink) {
+            this.size = size;
+            this.nlink = nlink;
+        }
+
+        void add(Candidate candidate) {
+            links.add(candidate);
+            lastUse = Math.max(lastUse, candidate.lastUse);
+        }
+
+        public int compareTo(Inode o) {
+            // least recently used first, largest first among equals
+            if (lastUse != o.lastUse) return lastUse < o.lastUse ? -1 : 1;
+            return Long.compare(o.size, size);
+        }
+    }
+
+    /**
+     * An artifact a scan kept.
+     */
+    static final class Candidate {
+        final Path root;
+        final Path dir;
+        final String location;
+        final String name;
+        final long lastUse;
+        final long size;
+
+        /**
+         * @param root     root of the repository holding the artifact
+         * @param dir      GAV directory holding the artifact
+         * @param location location of <tt>dir</tt> relative to the repository root
+         * @param lastUse  last use of the artifact, in seconds
+         */
+        Candidate(Path root, Path dir, String location, String name, long lastUse, long size) {
+            this.root = root;
+            this.dir = dir;
+            this.location = location;
+            this.name = name;
+            this.lastUse = lastUse;
+            this.size = size;
+        }
+
+    }
+}
@@ -1,19 +1,32 @@
 package org.jenkinsci.plugins.mavenrepocleaner;
 
 import org.apache.commons.io.DirectoryWalker;
-import org.apache.maven.index.artifact.Gav;
-import org.apache.maven.index.artifact.M2GavCalculator;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPOutputStream;
 
 import java.util.concurrent.TimeUnit
 ;
@@ -23,62 +36,590 @@ import java.util.concurrent.TimeUnit
  */
 public class RepositoryCleaner extends DirectoryWalker
 {
-    private M2GavCalculator gavCalculator = new M2GavCalculator();
+    /**
+     * Scan engines {@link #clean(File)} can run with.
+     */
+    public enum Engine {
+        /** The historical {@link DirectoryWalker}, lists directories several times and stats every file twice. */
+        WALKER,
+        /** {@link NioRepositoryWalker}, a single pass over the tree that prunes empty directories bottom-up. */
+        NIO
+    }
+
+    /**
+     * Engine used unless one is set explicitly. Can be switched back to the {@link DirectoryWalker} one with
+     * <tt>-Dorg.jenkinsci.plugins.mavenrepocleaner.RepositoryCleaner.engine=walker</tt> on the agent.
+     */
+    public static Engine DEFAULT_ENGINE =
+        "walker".equalsIgnoreCase(System.getProperty(RepositoryCleaner.class.getName() + ".engine"))
+            ? Engine.WALKER : Engine.NIO;
+
+    /**
+     * Number of threads the {@link Engine#NIO} engine scans with unless set explicitly. <tt>1</tt>, the default,
+     * keeps the single-threaded walk that suits spinning disks; fast storage can be given more with
+     * <tt>-Dorg.jenkinsci.plugins.mavenrepocleaner.RepositoryCleaner.parallelism=N</tt> on the agent.
+     */
+    public static int DEFAULT_PARALLELISM =
+        Math.max(1, Integer.getInteger(RepositoryCleaner.class.getName() + ".parallelism", 1));
+
+    /**
+     * Whether the {@link Engine#NIO} engine skips unchanged sub-trees recorded in the {@link ScanIndex} of the
+     * previous run, unless set explicitly. Can be turned off with
+     * <tt>-Dorg.jenkinsci.plugins.mavenrepocleaner.RepositoryCleaner.incremental=false</tt> on the agent.
+     */
+    public static boolean DEFAULT_INCREMENTAL =
+        !"false".equals(System.getProperty(RepositoryCleaner.class.getName() + ".incremental"));
+
+    /**
+     * Number of threads artifacts are hashed with when {@link #setVerifyChecksums verifying checksums}, one per
+     * processor unless set with <tt>-Dorg.jenkinsci.plugins.mavenrepocleaner.RepositoryCleaner.verifyThreads=N</tt>
+     * on the agent.
+     */
+    public static int DEFAULT_VERIFY_THREADS = Math.max(1,
+        Integer.getInteger(RepositoryCleaner.class.getName() + ".verifyThreads", Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * File, next to the {@link ScanIndex} of a repository, recording how far a {@link #setCheckpoint checkpointed}
+     * clean up went.
+     */
+    static final String CHECKPOINT = ".cleanupCheckpoint";
+
+    /**
+     * Directory, in the data directory of a node, the scheduled clean ups keep the {@link ScanIndex} and checkpoint
+     * of each repository in, see {@link #setStateDirectory}.
+     */
+    static final String STATE = ".maven-repo-cleaner-state";
+
+    private final GavResolver gavs = new GavResolver();
     private long olderThan;
     private String root;
+    private Engine engine = DEFAULT_ENGINE;
+    private int parallelism = DEFAULT_PARALLELISM;
+    private boolean accessJournal;
+    private Map<String, Long> journal;
+    /** Latest use recorded in the journal, in seconds. */
+    private long journalLatest;
+    private boolean incremental = DEFAULT_INCREMENTAL;
+    private ScanIndex previousIndex;
+    private ScanIndex nextIndex;
+    private File removedPathsLog;
+    private CleanupResult current;
+    private long quotaBytes;
+    private QuotaEviction quota;
+    private Path repository;
+    private SnapshotRetention snapshots;
+    private boolean verifyChecksums;
+    private ChecksumVerifier verifier;
+    private IoThrottle throttle = IoThrottle.NONE;
+    private boolean artifactLocking;
+    private long checkpoint;
+    private File state;
+    /** Directory the index and checkpoint of the repository being cleaned are kept in. */
+    private File indexDirectory;
+    private Map<String, Long> inUse;
+    /** Start of the earliest build running with the repository being cleaned, in milliseconds, <tt>0</tt> if none. */
+    private long inUseSince;
+    /** Journal of the repository being cleaned, when builds run with it. */
+    private Map<String, Long> inUseJournal;
 
     public RepositoryCleaner(long timestamp) {
         this.olderThan = timestamp / 1000;
     }
 
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Caps the number of threads scanning the repository, split at groupId/artifactId boundaries. Only used by
+     * the {@link Engine#NIO} engine.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Decides on the last use of artifacts from the {@link AccessJournal} recorded by builds, and their
+     * modification time, instead of their last access time.
+     * <p>
+     * Builds don't journal everything they resolve: the parent POMs of their dependencies and the BOMs those
+     * import aren't. Rather than going by their modification time, and evicting them after every build for the
+     * next one to download them again, GAV directories the journal doesn't know of are taken as used by the
+     * latest build it recorded, or as just used when it recorded none.
+     */
+    public void setAccessJournal(boolean accessJournal) {
+        this.accessJournal = accessJournal;
+    }
+
+    /**
+     * Skips the sub-trees the {@link ScanIndex} of the previous run shows as unchanged and holding nothing old
+     * enough, and records the index of the next run. Only used by the {@link Engine#NIO} engine.
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Streams the path of every removed artifact, gzipped, to the given file.
+     */
+    public void setRemovedPathsLog(File removedPathsLog) {
+        this.removedPathsLog = removedPathsLog;
+    }
+
+    /**
+     * Once the age based clean up is done, evicts the least recently used artifacts until the artifacts left
+     * take at most <tt>bytes</tt>, checksums and metadata aside. When cleaning several repositories at once, the
+     * quota applies to all of them together. Only used by the {@link Engine#NIO} engine, <tt>0</tt> for none.
+     */
+    public void setQuota(long bytes) {
+        this.quotaBytes = bytes;
+    }
+
+    /**
+     * Keeps only the latest <tt>builds</tt> timestamped builds of each snapshot artifact, whatever their last use,
+     * and rewrites the snapshot metadata accordingly. Only used by the {@link Engine#NIO} engine, <tt>0</tt> to
+     * keep them all.
+     */
+    public void setSnapshotRetention(int builds) {
+        this.snapshots = builds > 0 ? new SnapshotRetention(builds) : null;
+    }
+
+    /**
+     * Paces deletes and stats so that the clean up doesn't get in the way of builds sharing the disk.
+     */
+    void setThrottle(IoThrottle throttle) {
+        this.throttle = throttle == null ? IoThrottle.NONE : throttle;
+    }
+
+    /**
+     * Once the clean up is done, hashes the artifacts left and evicts those matching none of their
+     * <tt>.sha1</tt>/<tt>.md5</tt> files, so that builds download them again. Artifacts found intact are only
+     * hashed again once modified, as recorded in the {@link ScanIndex} when the clean up is incremental. Only used
+     * by the {@link Engine#NIO} engine.
+     */
+    public void setVerifyChecksums(boolean verifyChecksums) {
+        this.verifyChecksums = verifyChecksums;
+    }
+
+    /**
+     * Takes the {@link ArtifactLocks lock} of a version directory before removing anything from it, and leaves it
+     * alone when a build holds it, so that the repository of a running build can be cleaned. Only used by the
+     * {@link Engine#NIO} engine.
+     */
+    public void setArtifactLocking(boolean artifactLocking) {
+        this.artifactLocking = artifactLocking;
+    }
+
+    /**
+     * Keeps whatever the builds running with a repository may have resolved so far: artifacts in version
+     * directories modified or journaled since the earliest of them started. They are neither removed nor evicted
+     * for the quota, however long ago they were last used, even when a build doesn't hold their lock.
+     *
+     * @param since start time, in milliseconds, of the earliest build running with each repository, by path
+     */
+    void setInUseSince(Map<String, Long> since) {
+        this.inUse = since;
+    }
+
+    /**
+     * Makes the clean up resumable. The repository is walked one second level directory (<tt>org/apache</tt>) at a
+     * time, in name order, and the last one done is recorded at its root every {@link Checkpoint#INTERVAL}, along
+     * with the {@link ScanIndex} so far. A clean up of the same run finding it skips the directories done, and
+     * takes what the index says about them for granted. Only used by the {@link Engine#NIO} engine, which then
+     * scans on a single thread.
+     *
+     * @param run identifies the run across attempts, <tt>0</tt> for none
+     */
+    public void setCheckpoint(long run) {
+        this.checkpoint = run;
+    }
+
+    /**
+     * Keeps the {@link ScanIndex} and the checkpoint of each repository in a directory of its own under
+     * <tt>state</tt>, rather than at its root, so that cleaning it up doesn't change the modification time
+     * {@link RepositoryExpirationCallable.Policy#EXPIRE_SINCE_CHANGED} expires it by.
+     *
+     * @param state <tt>null</tt> to keep them at the root of the repositories
+     * @see #stateOf(File, File)
+     */
+    void setStateDirectory(File state) {
+        this.state = state;
+    }
+
+    /**
+     * Directory the {@link ScanIndex} and checkpoint of a repository are kept in: the repository itself, or a
+     * directory named after the digest of its absolute path under the {@link #setStateDirectory state directory}.
+     */
+    static File stateOf(File state, File repository) {
+        if (state == null) return repository;
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                .digest(repository.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+            return new File(state, String.format("%032x", new BigInteger(1, Arrays.copyOf(digest, 16))));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Deletes the {@link ScanIndex} and checkpoint kept for a repository under a state directory, once it is gone.
+     */
+    static void forget(File state, File repository) throws IOException {
+        File dir = stateOf(state, repository);
+        File[] files = dir.listFiles();
+        for (int i = 0; files != null && i < files.length; i++) {
+            Files.deleteIfExists(files[i].toPath());
+        }
+        Files.deleteIfExists(dir.toPath());
+    }
+
+    /**
+     * Cleans the repository up, keeping the path of every removed artifact in memory.
+     *
+     * @return the paths of removed artifacts
+     * @see #cleanup(File)
+     */
     public Collection<String> clean(File repository) throws IOException {
+        this.quota = quotaBytes > 0 && engine == Engine.NIO ? new QuotaEviction(quotaBytes, throttle, artifactLocking) : null;
+        try {
+            CleanupResult result = run(repository, true);
+            if (quota != null) {
+                quota.evict(result);
+            }
+            return result.getPaths();
+        } finally {
+            this.quota = null;
+        }
+    }
+
+    /**
+     * Cleans the repository up, only keeping totals of what has been removed.
+     */
+    public CleanupResult cleanup(File repository) throws IOException {
+        return cleanup(Collections.singletonList(repository));
+    }
+
+    /**
+     * Cleans several repositories up, sharing the same quota if any.
+     */
+    public CleanupResult cleanup(Collection<File> repositories) throws IOException {
+        CleanupResult result = null;
+        this.quota = quotaBytes > 0 && engine == Engine.NIO ? new QuotaEviction(quotaBytes, throttle, artifactLocking) : null;
+        try {
+            for (File repository : repositories) {
+                CleanupResult removed = run(repository, false);
+                if (result == null) {
+                    result = removed;
+                } else {
+                    result.merge(removed);
+                }
+            }
+            if (result == null) {
+                result = new CleanupResult(false, null);
+            }
+            if (quota != null) {
+                quota.evict(result);
+            }
+            return result;
+        } finally {
+            this.quota = null;
+        }
+    }
+
+    private CleanupResult run(File repository, boolean keepPaths) throws IOException {
         this.root = repository.getAbsolutePath();
-        Collection<String> result = new ArrayList<String>();
-        walk(repository, result);
-        return result;
+        this.repository = repository.toPath();
+        this.journal = accessJournal ? AccessJournal.read(repository) : null;
+        Long since = inUse == null ? null : inUse.get(repository.getPath());
+        this.inUseSince = since == null ? 0 : since;
+        this.inUseJournal = since == null ? null : journal != null ? journal : AccessJournal.read(repository);
+        this.journalLatest = journal == null || journal.isEmpty()
+            ? TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis())
+            : TimeUnit.MILLISECONDS.toSeconds(Collections.max(journal.values()));
+        boolean indexed = incremental && engine == Engine.NIO && repository.isDirectory();
+        this.indexDirectory = stateOf(state, repository);
+        if (state != null && repository.isDirectory()) {
+            Files.createDirectories(indexDirectory.toPath());
+        }
+        this.previousIndex = indexed ? ScanIndex.load(indexDirectory) : null;
+        this.nextIndex = indexed ? new ScanIndex() : null;
+        this.verifier = verifyChecksums && engine == Engine.NIO ? new ChecksumVerifier(this) : null;
+
+        Writer log = removedPathsLog == null ? null
+            : new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(removedPathsLog)), StandardCharsets.UTF_8);
+        try {
+            CleanupResult result = new CleanupResult(keepPaths, log);
+            if (engine == Engine.NIO && repository.isDirectory()) {
+                // what is left is added up as the scan goes, even if nothing is
+                result.retained(root, 0);
+            }
+            long scanning = System.nanoTime();
+            if (engine == Engine.NIO && checkpoint != 0 && repository.isDirectory()) {
+                cleanResumably(repository, result);
+            } else if (engine == Engine.NIO && parallelism > 1) {
+                cleanInParallel(repository, result);
+            } else if (engine == Engine.NIO) {
+                new NioRepositoryWalker(this, result).walk(repository.toPath());
+            } else {
+                current = result;
+                walk(repository, new ArrayList<String>());
+            }
+            result.scanned(System.nanoTime() - scanning);
+            if (verifier != null) {
+                verifier.verify(result, DEFAULT_VERIFY_THREADS);
+            }
+            if (accessJournal) {
+                AccessJournal.compact(repository);
+            }
+            if (repository.isDirectory()) {
+                try {
+                    result.located(root, CleanupResult.Store.of(this.repository));
+                } catch (IOException e) {
+                    // accounted for, on no device in particular
+                }
+            }
+            if (nextIndex != null) {
+                nextIndex.save(indexDirectory);
+            }
+            if (checkpoint != 0) {
+                Checkpoint.clear(new File(indexDirectory, CHECKPOINT).toPath());
+            }
+            if (log != null) {
+                result.setRemovedPathsLog(removedPathsLog.getPath());
+            }
+            return result;
+        } finally {
+            current = null;
+            verifier = null;
+            if (log != null) {
+                log.close();
+            }
+        }
+    }
+
+    QuotaEviction getQuota() {
+        return quota;
+    }
+
+    /**
+     * Absolute path of the repository being cleaned, as its usage is recorded.
+     */
+    String getRoot() {
+        return root;
+    }
+
+    /**
+     * Root of the repository being cleaned.
+     */
+    Path getRepository() {
+        return repository;
+    }
+
+    IoThrottle getThrottle() {
+        return throttle;
+    }
+
+    boolean isArtifactLocking() {
+        return artifactLocking;
+    }
+
+    ChecksumVerifier getVerifier() {
+        return verifier;
+    }
+
+    SnapshotRetention getSnapshotRetention() {
+        return snapshots;
+    }
+
+    ScanIndex getPreviousIndex() {
+        return previousIndex;
+    }
+
+    ScanIndex getNextIndex() {
+        return nextIndex;
+    }
+
+    /**
+     * Last access time, in seconds, artifacts have to be older than to get removed.
+     */
+    long getOlderThan() {
+        return olderThan;
+    }
+
+    /**
+     * When an artifact has last been used, in seconds.
+     *
+     * @param location location of the GAV directory holding the artifact, relative to the repository root
+     * @param attrs    attributes of the artifact file
+     */
+    long lastUse(String location, BasicFileAttributes attrs) {
+        if (journal == null) {
+            return attrs.lastAccessTime().to(TimeUnit.SECONDS);
+        }
+        // downloads don't go through the journal, but leave a fresh modification time
+        long modified = attrs.lastModifiedTime().to(TimeUnit.SECONDS);
+        Long used = journal.get(location);
+        // resolved on the way, without the build knowing
+        if (used == null) return Math.max(modified, journalLatest);
+        return Math.max(modified, TimeUnit.MILLISECONDS.toSeconds(used));
+    }
+
+    /**
+     * Whether a running build may have resolved the artifacts of a version directory.
+     *
+     * @param modified modification time of the directory, or of an artifact, in milliseconds
+     * @see #setInUseSince(Map)
+     */
+    boolean isInUse(String location, long modified) {
+        if (inUseSince == 0) return false;
+        if (modified >= inUseSince) return true;
+        Long used = inUseJournal == null ? null : inUseJournal.get(location);
+        return used != null && used >= inUseSince;
+    }
+
+    private void cleanInParallel(File repository, CleanupResult result) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            RepositoryScanTask task = new RepositoryScanTask(this, repository.toPath(), "", result.fork());
+            pool.invoke(task);
+            result.merge(task.result);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void cleanResumably(File repository, CleanupResult result) throws IOException {
+        Path root = repository.toPath();
+        Path file = new File(indexDirectory, CHECKPOINT).toPath();
+        final String cursor = Checkpoint.load(file, checkpoint);
+        if (cursor != null && previousIndex != null) {
+            // what the interrupted attempt recorded for the directories it went through
+            List<QuotaEviction.Candidate> candidates = new ArrayList<QuotaEviction.Candidate>();
+            for (Map.Entry<String, ScanIndex.Entry> e : previousIndex.entries()) {
+                if (!isDone(e.getKey(), cursor)) continue;
+                ScanIndex.Entry entry = e.getValue();
+                nextIndex.put(e.getKey(), entry);
+                result.retained(this.root, entry.bytes());
+                for (int i = 0; quota != null && !isInUse(e.getKey(), entry.modified) && i < entry.size; i++) {
+                    candidates.add(new QuotaEviction.Candidate(root, root.resolve(e.getKey().substring(1)), e.getKey(),
+                        entry.names[i], entry.lastUses[i], entry.sizes[i]));
+                }
+            }
+            if (quota != null) quota.addAll(candidates);
+        }
+
+        NioRepositoryWalker walker = new NioRepositoryWalker(this, result);
+        long saved = System.currentTimeMillis();
+        for (Path group : directories(root)) {
+            String name = group.getFileName().toString();
+            if (ArtifactLocks.LOCKS.equals(name)) continue;
+            for (Path dir : directories(group)) {
+                String location = '/' + name + '/' + dir.getFileName();
+                if (cursor != null && isDone(location, cursor)) continue;
+                walker.walk(dir, location, true);
+                if (System.currentTimeMillis() - saved >= Checkpoint.INTERVAL) {
+                    final String done = location;
+                    if (nextIndex != null) nextIndex.save(indexDirectory, previousIndex, l -> !isDone(l, done));
+                    Checkpoint.save(file, checkpoint, location);
+                    saved = System.currentTimeMillis();
+                }
+            }
+            NioRepositoryWalker.prune(group, root, throttle);
+        }
+    }
+
+    /**
+     * Whether a location lies in a second level directory a checkpoint covers. Directories are compared name by
+     * name, the way they are walked, rather than as paths.
+     *
+     * @param cursor location of the last second level directory done, <tt>/org/apache</tt>
+     */
+    static boolean isDone(String location, String cursor) {
+        int group = location.indexOf('/', 1);
+        int cursorGroup = cursor.indexOf('/', 1);
+        if (group < 0 || cursorGroup < 0) return false;
+        int c = location.substring(1, group).compareTo(cursor.substring(1, cursorGroup));
+        if (c != 0) return c < 0;
+        int end = location.indexOf('/', group + 1);
+        return location.substring(group + 1, end < 0 ? location.length() : end)
+            .compareTo(cursor.substring(cursorGroup + 1)) <= 0;
+    }
+
+    /**
+     * Sub-directories of a directory, by name.
+     */
+    private List<Path> directories(Path dir) throws IOException {
+        List<Path> directories = new ArrayList<Path>();
+        int entries = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path entry : stream) {
+                entries++;
+                if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) directories.add(entry);
+            }
+        }
+        throttle.stat(entries);
+        directories.sort(Comparator.comparing(p -> p.getFileName().toString()));
+        return directories;
     }
 
     protected final void handleDirectoryStart(File directory, int depth, Collection results) throws IOException {
 
-        for (File file : directory.listFiles()) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            current.error();
+            return;
+        }
+        throttle.stat(files.length);
+        String location = null;
+        boolean artifacts = false;
+        for (File file : files) {
             if (file.isDirectory()) continue;
+            current.visited(1);
             String fileName = file.getName();
 
             if (fileName.endsWith(".sha1") || fileName.endsWith(".md5")) continue;
 
-            String location = file.getAbsolutePath().substring(root.length());
-            Gav gav = gavCalculator.pathToGav(location);
-            if (gav == null) continue; // Not an artifact
+            if (location == null) {
+                // once per directory, artifacts are then matched by name
+                location = directory.getAbsolutePath().substring(root.length()).replace(File.separatorChar, '/');
+                artifacts = gavs.enter(location);
+            }
+            String groupId = artifacts ? gavs.groupId(fileName) : null;
+            if (groupId == null) continue; // Not an artifact
 
-            olderThan(file, gav, results);
+            olderThan(file, location, groupId, results);
         }
 
         if ( directory.listFiles(new MetadataFileFilter()).length == 0 ) {
             for (File file : directory.listFiles()) {
-                file.delete();
+                throttle.delete(file.toPath(), file.length());
             }
-            directory.delete();
+            throttle.delete(directory.toPath(), 0);
         }
 
     }
 
-    private void olderThan(File file, Gav artifact, Collection results) throws IOException {
+    private void olderThan(File file, String location, String groupId, Collection results) throws IOException {
         BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
-        FileTime time = attrs.lastAccessTime();
-        long lastAccessTime = time.to(TimeUnit.SECONDS);
-        if (lastAccessTime < olderThan) {
+        if (lastUse(location, attrs) < olderThan && !isInUse(location, attrs.lastModifiedTime().toMillis())) {
             // This artifact hasn't been accessed during build
-            clean(file, artifact, results);
+            clean(file, location, groupId, attrs.size());
         }
     }
 
-    private void clean(File file, Gav artifact, Collection results) {
+    private void clean(File file, String location, String groupId, long size) throws IOException {
         File directory = file.getParentFile();
-        String fineName = gavCalculator.calculateArtifactName(artifact);
-        new File(directory, fineName + ".md5").delete();
-        new File(directory, fineName + ".sha1").delete();
-        file.delete();
-        results.add(gavCalculator.gavToPath(artifact));
+        String fileName = file.getName();
+        long deleting = System.nanoTime();
+        File md5 = new File(directory, fileName + ".md5");
+        File sha1 = new File(directory, fileName + ".sha1");
+        throttle.delete(md5.toPath(), md5.length());
+        throttle.delete(sha1.toPath(), sha1.length());
+        if (!throttle.delete(file.toPath(), size)) current.error();
+        current.deleted(System.nanoTime() - deleting);
+        current.removed(groupId, location + '/' + fileName, size);
     }
 
     private static class MetadataFileFilter implements FileFilter {
@@ -0,0 +1,443 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import hudson.FilePath;
+import hudson.remoting.VirtualChannel;
+import org.jenkinsci.remoting.RoleChecker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Expires the repositories of a node in a single remoting call.
+ * <p>
+ * The controller decides up front what each job allows, and hands over the repositories its
+ * {@link RepositoryRegistry} knows on the node. The agent only lists the job directories under the root when the
+ * registry has to be reconciled, checks the repositories and their marker files, and hands the expired ones to the
+ * {@link RepositoryReaper}. Under a node quota, the least recently used artifacts of the repositories left are
+ * then evicted until they fit in it, and their identical release artifacts can be replaced with clones by an
+ * {@link ArtifactDeduplicator}.
+ * <p>
+ * With a {@link WarmCache}, the release versions most repositories use are cached before anything is deleted,
+ * and the expired repositories are seeded from the cache right away.
+ * <p>
+ * Repositories of running builds are never deleted as a whole, but can have the artifacts unused within the
+ * expiration period evicted, directory by directory under their {@link ArtifactLocks lock}.
+ * <p>
+ * Repositories are processed in path order, and the last one done is recorded under the root as a
+ * {@link Checkpoint} of the run, so that the controller handing the same run again after a disconnection resumes
+ * after it. The repositories are cleaned with checkpoints of the same run too. Hardlinking duplicates starts over
+ * every time, it only reads what is left.
+ * <p>
+ * The summary tells how much the artifacts of each repository left take, and on which {@link CleanupResult.Store}:
+ * as counted by the clean ups of the run, or else as recorded in the {@link ScanIndex} of their last scan, which
+ * saves walking them just to add their sizes up.
+ * <p>
+ * The indexes and checkpoints of the repositories are kept in the data directory, so that cleaning a repository
+ * up leaves the modification time {@link Policy#EXPIRE_SINCE_CHANGED} expires it by as the builds left it.
+ */
+class RepositoryExpirationCallable implements FilePath.FileCallable<RepositoryExpirationCallable.Summary> {
+
+    /**
+     * What the controller decided for a job before looking at its repository.
+     */
+    enum Policy {
+        /** No such project anymore, delete whatever is there. */
+        ORPHANED,
+        /** Cleaning disabled for the job, or it is currently building. */
+        KEEP,
+        /**
+         * Currently building, evict the artifacts unused within the expiration period, those not locked and not
+         * resolved since the build started.
+         */
+        EVICT_COLD,
+        /** Delete when the repository directory hasn't been modified within the expiration period. */
+        EXPIRE_SINCE_CHANGED,
+        /** Delete when the repository marker file is older than the expiration period. */
+        EXPIRE_SINCE_ADDED,
+        /** Delete regardless of age. */
+        DELETE
+    }
+
+    static final String MARKER = ".cleanupMarker";
+
+    /**
+     * File, under the root, recording the last job directory a run is done with.
+     */
+    static final String CHECKPOINT = ".maven-repo-cleaner-checkpoint";
+
+    private final Map<String, Policy> policies;
+    private final String repository;
+    private final String data;
+    private final Map<String, Policy> targets;
+    private final Map<String, Long> started;
+    private final boolean discover;
+    private final long now;
+    private final long expiration;
+    private final long quota;
+    private final boolean deduplicate;
+    private final boolean hardlinks;
+    private final long warmCache;
+    private final IoThrottle throttle;
+
+    /**
+     * @param policies   policy per job directory name, directories of unknown jobs are {@link Policy#ORPHANED}
+     * @param repository location of the repository relative to a job directory
+     * @param data       directory the trash, the {@link WarmCache} and the {@link ScanIndex} of each repository of
+     *                   the node are kept in, see {@link MavenRepoCleanerThread#dataDirectory}
+     * @param targets    policy per path of the repositories known on the node
+     * @param started    start time of the earliest running build of the {@link Policy#EVICT_COLD} jobs, by job
+     *                   directory name as in <tt>policies</tt> and by path as in <tt>targets</tt>. Repositories of
+     *                   running builds whose start isn't known are kept whole
+     * @param discover   whether the job directories under the root are listed too, for repositories not known yet
+     * @param now        reference time of the cleanup run
+     * @param expiration age, in milliseconds, repositories get deleted after
+     * @param quota      bytes the artifacts of all the repositories that can be cleaned have to fit in, <tt>0</tt>
+     *                   for no quota
+     * @param deduplicate whether identical artifacts of the repositories that can be cleaned get cloned
+     * @param hardlinks  whether they get hardlinked when they can't be cloned
+     * @param warmCache  bytes of the {@link WarmCache} of the node, <tt>0</tt> for none
+     * @param throttle   paces the file system operations
+     */
+    RepositoryExpirationCallable(Map<String, Policy> policies, String repository, String data,
+                                 Map<String, Policy> targets, Map<String, Long> started, boolean discover, long now, long expiration, long quota, boolean deduplicate,
+                                 boolean hardlinks, long warmCache, IoThrottle throttle) {
+        this.policies = policies;
+        this.repository = repository;
+        this.data = data;
+        this.targets = targets;
+        this.started = started;
+        this.discover = discover;
+        this.now = now;
+        this.expiration = expiration;
+        this.quota = quota;
+        this.deduplicate = deduplicate;
+        this.hardlinks = hardlinks;
+        this.warmCache = warmCache;
+        this.throttle = throttle;
+    }
+
+    public Summary invoke(File root, VirtualChannel channel) throws IOException, InterruptedException {
+        Summary summary = new Summary();
+        long started = System.nanoTime();
+        try {
+            return invoke(root, summary);
+        } finally {
+            summary.scanDuration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        }
+    }
+
+    private Summary invoke(File root, Summary summary) throws IOException, InterruptedException {
+        File data = new File(this.data);
+        File state = new File(data, RepositoryCleaner.STATE);
+        // resume whatever a previous run left in the trash
+        RepositoryReaper.reap(new File(data, RepositoryReaper.TRASH), throttle);
+        if (!data.equals(root)) {
+            // left among the job directories by earlier versions
+            for (String name : new String[] {RepositoryReaper.TRASH, WarmCache.CACHE}) {
+                File legacy = new File(root, name);
+                try {
+                    if (legacy.exists()) RepositoryReaper.dispose(data, legacy, name, now, throttle);
+                } catch (IOException e) {
+                    summary.failures.add("Failed to delete " + legacy + ": " + e);
+                }
+            }
+        }
+
+        // by path, the order they are checkpointed in
+        Map<String, Policy> repos = new TreeMap<String, Policy>();
+        // start of the earliest build running with a repository, by path
+        Map<String, Long> inUse = new HashMap<String, Long>();
+        if (discover) {
+            File[] dirs = root.listFiles(f -> f.isDirectory() && !f.getName().equals(RepositoryReaper.TRASH)
+                && !f.getName().equals(WarmCache.CACHE) && !f.getName().equals(RepositoryCleaner.STATE));
+            for (int i = 0; dirs != null && i < dirs.length; i++) {
+                File repo = new File(dirs[i], repository);
+                Policy policy = policies.get(dirs[i].getName());
+                repos.put(repo.getPath(), policy == null ? Policy.ORPHANED
+                    : running(policy, started.get(dirs[i].getName()), repo, inUse));
+                if (repo.isDirectory()) summary.discovered.put(repo.getPath(), dirs[i].getName());
+            }
+        }
+        for (Map.Entry<String, Policy> target : targets.entrySet()) {
+            File repo = new File(target.getKey());
+            if (!repo.exists()) {
+                summary.missing.add(target.getKey());
+                forget(state, repo, summary);
+                continue;
+            }
+            // whatever its directory is named, the registry knows which job a repository belongs to
+            repos.put(repo.getPath(), running(target.getValue(), started.get(target.getKey()), repo, inUse));
+        }
+        if (repos.isEmpty() || !root.isDirectory()) return summary;
+
+        Path checkpoint = new File(root, CHECKPOINT).toPath();
+        String done = Checkpoint.load(checkpoint, now);
+        long saved = System.currentTimeMillis();
+
+        Path cache = new File(data, WarmCache.CACHE).toPath();
+        if (warmCache > 0 && done == null) {
+            // before anything expired is deleted
+            WarmCache warm = new WarmCache(cache, warmCache, now - expiration, throttle);
+            try {
+                for (Map.Entry<String, Policy> entry : repos.entrySet()) {
+                    File repo = new File(entry.getKey());
+                    if (entry.getValue() != Policy.ORPHANED) {
+                        warm.observe(repo, ScanIndex.load(RepositoryCleaner.stateOf(state, repo)));
+                    }
+                }
+                warm.refresh(summary);
+            } catch (IOException e) {
+                summary.failures.add("Failed to refresh the repository cache of " + root + ": " + e);
+            }
+        } else if (warmCache == 0) {
+            WarmCache.dispose(data, now, throttle);
+        }
+
+        RepositoryCleaner cold = new RepositoryCleaner(now - expiration);
+        cold.setArtifactLocking(true);
+        cold.setThrottle(throttle);
+        cold.setCheckpoint(now);
+        cold.setStateDirectory(state);
+        cold.setInUseSince(inUse);
+
+        List<File> remaining = new ArrayList<File>();
+        List<File> building = new ArrayList<File>();
+        String last = null;
+        for (Map.Entry<String, Policy> entry : repos.entrySet()) {
+            if (Thread.interrupted()) throw new InterruptedException();
+            File repo = new File(entry.getKey());
+            Policy policy = entry.getValue();
+            last = entry.getKey();
+
+            if (done != null && entry.getKey().compareTo(done) <= 0) {
+                // done by a previous attempt of the run, only left for the quota
+                summary.resumed++;
+                if (policy == Policy.EVICT_COLD && repo.isDirectory()) {
+                    building.add(repo);
+                } else if (policy != Policy.KEEP && repo.isDirectory()) {
+                    remaining.add(repo);
+                }
+                continue;
+            }
+            summary.scanned++;
+
+            try {
+                if (shouldBeDeleted(repo, policy)) {
+                    long deleting = System.nanoTime();
+                    RepositoryReaper.dispose(data, repo, repo.getParentFile().getName(), now, throttle);
+                    summary.deleteDuration += TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - deleting);
+                    summary.deleted.add(repo.getPath());
+                    forget(state, repo, summary);
+                    if (warmCache > 0 && policy != Policy.ORPHANED && WarmCache.seed(cache, repo.toPath(), throttle) > 0) {
+                        summary.seeded++;
+                    }
+                } else {
+                    summary.kept++;
+                    if (policy == Policy.EVICT_COLD && repo.isDirectory()) {
+                        building.add(repo);
+                        evictCold(cold, repo, summary);
+                    } else if (policy != Policy.KEEP && repo.isDirectory()) {
+                        remaining.add(repo);
+                    }
+                }
+            } catch (IOException e) {
+                summary.failures.add("Failed to delete " + repo + ": " + e);
+            }
+
+            if (System.currentTimeMillis() - saved >= Checkpoint.INTERVAL) {
+                Checkpoint.save(checkpoint, now, entry.getKey());
+                saved = System.currentTimeMillis();
+            }
+        }
+        // only the quota is left
+        Checkpoint.save(checkpoint, now, last);
+
+        if (quota > 0 && !(remaining.isEmpty() && building.isEmpty())) {
+            List<File> all = new ArrayList<File>(remaining);
+            all.addAll(building);
+            RepositoryCleaner cleaner = new RepositoryCleaner(0);
+            cleaner.setQuota(quota);
+            cleaner.setThrottle(throttle);
+            cleaner.setArtifactLocking(!building.isEmpty());
+            cleaner.setInUseSince(inUse);
+            cleaner.setCheckpoint(now);
+            cleaner.setStateDirectory(state);
+            try {
+                CleanupResult evicted = cleaner.cleanup(all);
+                summary.account(evicted);
+                summary.evicted = evicted.getArtifacts();
+                summary.evictedBytes = evicted.getBytes();
+                summary.filesVisited += evicted.getFilesVisited();
+                summary.deleteDuration += evicted.getDeleteDuration();
+                summary.errors += evicted.getErrors();
+            } catch (IOException e) {
+                summary.failures.add("Failed to enforce the quota of " + root + ": " + e);
+            }
+        }
+
+        if (deduplicate && remaining.size() > 1) {
+            ArtifactDeduplicator deduplicator = new ArtifactDeduplicator(throttle, hardlinks);
+            try {
+                deduplicator.deduplicate(remaining);
+            } catch (IOException e) {
+                summary.failures.add("Failed to deduplicate the repositories of " + root + ": " + e);
+            }
+            summary.filesVisited += deduplicator.getVisited();
+            summary.linked = deduplicator.getLinked();
+            summary.linkedBytes = deduplicator.getBytes();
+        }
+        for (Map.Entry<String, Policy> entry : repos.entrySet()) {
+            if (!summary.usage.containsKey(entry.getKey()) && !summary.deleted.contains(entry.getKey())) {
+                account(new File(entry.getKey()), state, summary);
+            }
+        }
+        Checkpoint.clear(checkpoint);
+        return summary;
+    }
+
+    /**
+     * Drops what was kept about a repository gone.
+     */
+    private static void forget(File state, File repo, Summary summary) {
+        try {
+            RepositoryCleaner.forget(state, repo);
+        } catch (IOException e) {
+            summary.failures.add("Failed to delete the index of " + repo + ": " + e);
+        }
+    }
+
+    /**
+     * Accounts for a repository no clean up of the run went through, from the index of its last scan: a scheduled
+     * one, or else one run by a build.
+     */
+    private static void account(File repo, File state, Summary summary) {
+        File index = RepositoryCleaner.stateOf(state, repo);
+        if (!new File(index, ScanIndex.FILE_NAME).isFile()) index = repo;
+        if (!new File(index, ScanIndex.FILE_NAME).isFile()) return;
+        summary.usage.put(repo.getPath(), ScanIndex.load(index).bytes());
+        try {
+            summary.stores.put(repo.getPath(), CleanupResult.Store.of(repo.toPath()));
+        } catch (IOException e) {
+            // accounted for, on no device in particular
+        }
+    }
+
+    /**
+     * Records when the earliest build running with a repository started, or keeps the repository whole when that
+     * isn't known.
+     */
+    private static Policy running(Policy policy, Long since, File repo, Map<String, Long> inUse) {
+        if (policy != Policy.EVICT_COLD) return policy;
+        if (since == null) return Policy.KEEP;
+        inUse.put(repo.getPath(), since);
+        return policy;
+    }
+
+    /**
+     * Evicts the artifacts unused within the expiration period from the repository of a running build.
+     */
+    private void evictCold(RepositoryCleaner cleaner, File repo, Summary summary) {
+        try {
+            CleanupResult evicted = cleaner.cleanup(repo);
+            summary.account(evicted);
+            summary.cold += evicted.getArtifacts();
+            summary.coldBytes += evicted.getBytes();
+            summary.filesVisited += evicted.getFilesVisited();
+            summary.deleteDuration += evicted.getDeleteDuration();
+            summary.errors += evicted.getErrors();
+        } catch (IOException e) {
+            summary.failures.add("Failed to clean the repository of a running build " + repo + ": " + e);
+        }
+    }
+
+    private boolean shouldBeDeleted(File repo, Policy policy) throws IOException {
+        if (policy == Policy.ORPHANED) return repo.exists();
+        if (!repo.isDirectory()) return false;
+
+        // If the marker file doesn't already exist, create it.
+        File marker = new File(repo, MARKER);
+        if (!marker.exists()) {
+            // Giving marker file a modification time of now - 5 minutes, so that a check tomorrow
+            // will show it greater than 24 hours old.
+            if (!marker.createNewFile() || !marker.setLastModified(now - 5 * 60 * 1000L)) {
+                throw new IOException("Failed to create " + marker);
+            }
+        }
+
+        switch (policy) {
+            case KEEP:
+            case EVICT_COLD:
+                return false;
+            case EXPIRE_SINCE_CHANGED:
+                return repo.lastModified() + expiration <= now;
+            case EXPIRE_SINCE_ADDED:
+                return marker.lastModified() + expiration <= now;
+            default:
+                return true;
+        }
+    }
+
+    @Override
+    public void checkRoles(RoleChecker checker) throws SecurityException {
+        // no much to control here
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Compact outcome of a run, sent back to the controller.
+     */
+    static class Summary implements Serializable {
+        int scanned;
+        /** Repositories a previous attempt of the run was done with. */
+        int resumed;
+        int kept;
+        long evicted;
+        long evictedBytes;
+        long linked;
+        long linkedBytes;
+        /** Artifacts evicted from the repositories of running builds. */
+        long cold;
+        long coldBytes;
+        long filesVisited;
+        /** Errors met while scanning, on top of the {@link #failures}. */
+        long errors;
+        /** Milliseconds spent on the agent. */
+        long scanDuration;
+        /** Milliseconds spent moving expired repositories away and evicting artifacts. */
+        long deleteDuration;
+        /** Release versions in the warm cache, and their size. */
+        int cached;
+        long cachedBytes;
+        /** Expired repositories seeded from the warm cache. */
+        int seeded;
+        final List<String> deleted = new ArrayList<String>();
+        /** Repositories found listing the job directories, and the name of their directory, by path. */
+        final Map<String, String> discovered = new HashMap<String, String>();
+        /** Known repositories found gone. */
+        final List<String> missing = new ArrayList<String>();
+        final List<String> failures = new ArrayList<String>();
+        /** Bytes of the artifacts left in the repositories accounted for, by path. */
+        final Map<String, Long> usage = new HashMap<String, Long>();
+        /** File store of the repositories accounted for, by path. */
+        final Map<String, CleanupResult.Store> stores = new HashMap<String, CleanupResult.Store>();
+
+        /**
+         * Takes what is left after a clean up, which supersedes what an earlier one of the run found.
+         */
+        void account(CleanupResult result) {
+            usage.putAll(result.getUsage());
+            stores.putAll(result.getStores());
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,139 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import hudson.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Gets expired repositories out of the way in constant time, by renaming them into a trash directory on the same
+ * filesystem, and deletes them in the background of the JVM the trash lives on.
+ * <p>
+ * Whatever an interrupted reaper leaves behind, an agent restart for instance, is picked up again the next time
+ * that trash directory is reaped. Under an {@link IoThrottle}, the trash is emptied file by file at its pace.
+ */
+final class RepositoryReaper {
+
+    /**
+     * Name of the trash directory, created in the data directory of the node, see
+     * {@link MavenRepoCleanerThread#dataDirectory}.
+     */
+    static final String TRASH = ".maven-repo-cleaner-trash";
+
+    private static final Set<File> reaping = new HashSet<File>();
+
+    private static final AtomicInteger sequence = new AtomicInteger();
+
+    private static final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "Maven repository reaper");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private RepositoryReaper() {
+    }
+
+    /**
+     * Moves a repository into the trash of <tt>dir</tt> and has it deleted in the background, or deletes it
+     * right away if it can't be renamed.
+     *
+     * @param dir      directory the trash is created in
+     * @param name     name of the job directory the repository belongs to
+     * @param throttle paces the deletion
+     */
+    static void dispose(File dir, File repository, String name, long now, IoThrottle throttle) throws IOException {
+        File trash = new File(dir, TRASH);
+        File target = new File(trash, name + '-' + now + '-' + sequence.incrementAndGet());
+        try {
+            Files.createDirectories(trash.toPath());
+            Files.move(repository.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            LOGGER.log(Level.FINE, "Can't move " + repository + " to " + trash + ", deleting it in place", e);
+            delete(repository, throttle);
+            return;
+        } catch (IOException e) {
+            if (!repository.exists()) return;
+            LOGGER.log(Level.FINE, "Failed to move " + repository + " to " + trash + ", deleting it in place", e);
+            delete(repository, throttle);
+            return;
+        }
+        reap(trash, throttle);
+    }
+
+    /**
+     * Starts deleting the content of a trash directory in the background, unless it is already being reaped.
+     */
+    static void reap(File trash, IoThrottle throttle) {
+        synchronized (reaping) {
+            if (!trash.isDirectory() || !reaping.add(trash)) return;
+        }
+        executor.submit(() -> empty(trash, throttle));
+    }
+
+    private static void empty(File trash, IoThrottle throttle) {
+        Set<File> failed = new HashSet<File>();
+        while (true) {
+            File[] entries;
+            synchronized (reaping) {
+                entries = trash.listFiles(f -> !failed.contains(f));
+                if (entries == null || entries.length == 0) {
+                    // anything disposed from now on starts a new reaper
+                    reaping.remove(trash);
+                    return;
+                }
+            }
+            for (File entry : entries) {
+                try {
+                    delete(entry, throttle);
+                } catch (InterruptedIOException e) {
+                    synchronized (reaping) {
+                        reaping.remove(trash);
+                    }
+                    return;
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to delete " + entry, e);
+                    failed.add(entry);
+                }
+            }
+        }
+    }
+
+    private static void delete(File dir, IoThrottle throttle) throws IOException {
+        if (!throttle.isEnabled()) {
+            Util.deleteRecursive(dir);
+            return;
+        }
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!throttle.delete(file, attrs.size())) throw new IOException("Failed to delete " + file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null) throw exc;
+                if (!throttle.delete(dir, 0)) throw new IOException("Failed to delete " + dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(RepositoryReaper.class.getName());
+}
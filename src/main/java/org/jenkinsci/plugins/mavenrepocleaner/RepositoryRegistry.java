@@ -0,0 +1,195 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.XmlFile;
+import hudson.maven.MavenModuleSet;
+import hudson.maven.MavenModuleSetBuild;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Repositories known on each node, and the job they belong to, persisted in <tt>JENKINS_HOME</tt> so that
+ * scheduled clean ups go straight to them rather than listing every job directory of the node.
+ * <p>
+ * Builds of jobs cleaned up, by their {@link MavenRepoCleanerProperty} or {@link MavenRepoCleanerPostBuildTask},
+ * register the repository they used when they complete, wherever it is: in the workspace of a job in a folder, or
+ * the private repository a Maven job is configured with. Every {@link #discoveryDays} days, scheduled clean ups
+ * list the job directories of a node again, as they used to, to reconcile the registry with what is there.
+ * Repositories found gone are dropped.
+ */
+final class RepositoryRegistry {
+
+    /**
+     * Days between two full discoveries of the repositories of a node.
+     */
+    static int discoveryDays = Integer.getInteger(RepositoryRegistry.class.getName() + ".discoveryDays", 7);
+
+    /**
+     * Job of the repositories used by several jobs, a per executor repository for instance. They are never deleted
+     * as a whole.
+     */
+    static final String SHARED = "";
+
+    private static RepositoryRegistry instance;
+
+    /** Repositories per node name, <tt>""</tt> for the controller. */
+    private Map<String, Repositories> nodes = new HashMap<String, Repositories>();
+
+    static synchronized RepositoryRegistry get() {
+        if (instance == null) {
+            instance = new RepositoryRegistry();
+            XmlFile file = getConfigFile();
+            if (file.exists()) {
+                try {
+                    file.unmarshal(instance);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+                }
+            }
+            if (instance.nodes == null) instance.nodes = new HashMap<String, Repositories>();
+        }
+        return instance;
+    }
+
+    private static XmlFile getConfigFile() {
+        return new XmlFile(new File(Jenkins.get().getRootDir(), RepositoryRegistry.class.getName() + ".xml"));
+    }
+
+    /**
+     * @return the full name of the job of each repository known on a node, by path
+     */
+    synchronized Map<String, String> repositories(String node) {
+        Repositories repositories = nodes.get(node);
+        return repositories == null ? new HashMap<String, String>()
+            : new HashMap<String, String>(repositories.paths);
+    }
+
+    /**
+     * Whether the job directories of a node have to be listed again.
+     */
+    synchronized boolean isDiscoveryDue(String node, long now) {
+        Repositories repositories = nodes.get(node);
+        return repositories == null || now - repositories.discovered >= TimeUnit.DAYS.toMillis(discoveryDays);
+    }
+
+    /**
+     * Records the repository a build used.
+     */
+    synchronized void register(String node, String path, String job) {
+        Repositories repositories = nodes.get(node);
+        if (repositories == null) {
+            repositories = new Repositories();
+            nodes.put(node, repositories);
+        }
+        String previous = repositories.paths.get(path);
+        if (previous != null && !previous.equals(job)) job = SHARED;
+        if (!job.equals(previous)) {
+            repositories.paths.put(path, job);
+            save();
+        }
+    }
+
+    /**
+     * Reconciles the registry of a node with what a clean up found there.
+     *
+     * @param discovered repositories found listing the job directories, and their job, <tt>null</tt> if they weren't
+     * @param missing    registered repositories found gone
+     */
+    synchronized void update(String node, Map<String, String> discovered, Collection<String> missing, long now) {
+        Repositories repositories = nodes.get(node);
+        if (repositories == null) {
+            repositories = new Repositories();
+            nodes.put(node, repositories);
+        }
+        boolean changed = repositories.paths.keySet().removeAll(missing);
+        if (discovered != null) {
+            for (Map.Entry<String, String> e : discovered.entrySet()) {
+                // builds know the full name of their job better than the name of its directory
+                if (repositories.paths.putIfAbsent(e.getKey(), e.getValue()) == null) changed = true;
+            }
+            repositories.discovered = now;
+            changed = true;
+        }
+        if (changed) save();
+    }
+
+    /**
+     * Forgets the repositories of nodes that no longer exist.
+     */
+    synchronized void retain(Collection<String> nodes) {
+        if (this.nodes.keySet().retainAll(nodes)) save();
+    }
+
+    private void save() {
+        try {
+            getConfigFile().write(this);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save the repository registry", e);
+        }
+    }
+
+    /**
+     * Repositories of a node.
+     */
+    static final class Repositories {
+        /** Full name of the job of each repository, by path. */
+        final Map<String, String> paths = new HashMap<String, String>();
+        /** When the job directories of the node were last listed. */
+        long discovered;
+    }
+
+    /**
+     * Registers the repository of the builds of jobs cleaned up.
+     */
+    @Extension
+    public static class Listener extends RunListener<AbstractBuild<?, ?>> {
+
+        @Override
+        public void onCompleted(AbstractBuild<?, ?> build, TaskListener listener) {
+            if (!isCleanedUp(build.getProject())) return;
+            FilePath repository = repositoryOf(build, build.getWorkspace());
+            if (repository != null) {
+                get().register(build.getBuiltOnStr(), repository.getRemote(), build.getProject().getFullName());
+            }
+        }
+    }
+
+    /**
+     * Whether the repository of a job is cleaned up, by its {@link MavenRepoCleanerProperty} or
+     * {@link MavenRepoCleanerPostBuildTask}.
+     */
+    static boolean isCleanedUp(AbstractProject<?, ?> project) {
+        MavenRepoCleanerProperty property = project.getProperty(MavenRepoCleanerProperty.class);
+        return property != null && !property.isNotOnThisProject()
+            || project.getPublishersList().get(MavenRepoCleanerPostBuildTask.class) != null;
+    }
+
+    /**
+     * Repository a build uses.
+     *
+     * @return <tt>null</tt> if it uses <tt>~/.m2/repository</tt>, shared by every job and never cleaned up
+     */
+    static FilePath repositoryOf(AbstractBuild<?, ?> build, FilePath workspace) {
+        AbstractProject<?, ?> project = build.getProject();
+        if (build instanceof MavenModuleSetBuild && project instanceof MavenModuleSet
+                && ((MavenModuleSet) project).getLocalRepository() != null) {
+            return ((MavenModuleSet) project).getLocalRepository().locate((MavenModuleSetBuild) build);
+        }
+        return workspace == null ? null : workspace.child(".repository");
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(RepositoryRegistry.class.getName());
+}
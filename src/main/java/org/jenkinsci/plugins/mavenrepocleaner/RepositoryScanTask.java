@@ -0,0 +1,116 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Fork-join scan of a repository sub-tree.
+ * <p>
+ * Directories that only hold directories (the repository root and groupId levels) fan out one task per
+ * sub-directory. As soon as a directory holds files, it is an artifactId or version level and the whole sub-tree
+ * is handed to a {@link NioRepositoryWalker} on the current worker, along with the entries already listed, so that
+ * every directory is listed once. Directories the {@link ScanIndex} shows as unchanged are skipped before being
+ * listed, from the attributes their parent's listing collected. Each task keeps its own {@link CleanupResult},
+ * merged into its parent's when joined, so workers never contend on shared totals.
+ * <p>
+ * Computes whether the directory still exists once scanned.
+ */
+class RepositoryScanTask extends RecursiveTask<Boolean> {
+
+    private final RepositoryCleaner cleaner;
+    private final Path dir;
+    private final BasicFileAttributes attrs;
+    private final String location;
+    final CleanupResult result;
+
+    RepositoryScanTask(RepositoryCleaner cleaner, Path dir, String location, CleanupResult result) {
+        this(cleaner, dir, null, location, result);
+    }
+
+    /**
+     * @param attrs attributes of <tt>dir</tt>, as its parent's listing collected them
+     */
+    private RepositoryScanTask(RepositoryCleaner cleaner, Path dir, BasicFileAttributes attrs, String location,
+                               CleanupResult result) {
+        this.cleaner = cleaner;
+        this.dir = dir;
+        this.attrs = attrs;
+        this.location = location;
+        this.result = result;
+    }
+
+    @Override
+    protected Boolean compute() {
+        try {
+            return scan();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private boolean scan() throws IOException {
+        boolean root = location.isEmpty();
+        NioRepositoryWalker walker = root ? null : new NioRepositoryWalker(cleaner, result);
+        if (walker != null && attrs != null && walker.skip(dir, location, attrs)) {
+            return true;
+        }
+
+        // in listing order, for the walker to go through them as it would have
+        Map<Path, BasicFileAttributes> entries = new LinkedHashMap<Path, BasicFileAttributes>();
+        int directories = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path entry : stream) {
+                if (root && ArtifactLocks.LOCKS.equals(entry.getFileName().toString())) {
+                    continue;
+                }
+                BasicFileAttributes attrs =
+                    Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                entries.put(entry, attrs);
+                if (attrs.isDirectory()) directories++;
+            }
+        }
+        boolean hasFiles = directories < entries.size();
+
+        // files at the root (cleanup marker...) are never artifacts
+        if (hasFiles && !root) {
+            // the walker paces the stats of the entries as it goes through them
+            return walker.walk(dir, location, true, attrs(), entries);
+        }
+        cleaner.getThrottle().stat(entries.size());
+
+        List<RepositoryScanTask> subtasks = new ArrayList<RepositoryScanTask>(directories);
+        for (Map.Entry<Path, BasicFileAttributes> entry : entries.entrySet()) {
+            if (!entry.getValue().isDirectory()) continue;
+            Path directory = entry.getKey();
+            subtasks.add(new RepositoryScanTask(cleaner, directory, entry.getValue(),
+                location + '/' + directory.getFileName(), result.fork()));
+        }
+        invokeAll(subtasks);
+
+        boolean retained = hasFiles || root;
+        for (RepositoryScanTask subtask : subtasks) {
+            if (subtask.join()) retained = true;
+            result.merge(subtask.result);
+        }
+        if (!retained && !cleaner.getThrottle().delete(dir, 0)) {
+            return true;
+        }
+        return retained;
+    }
+
+    private BasicFileAttributes attrs() throws IOException {
+        if (attrs != null) return attrs;
+        cleaner.getThrottle().stat(1);
+        return Files.readAttributes(dir, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    }
+}
@@ -0,0 +1,265 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * What the previous scan of a repository saw, persisted at its root, or in its
+ * {@link RepositoryCleaner#setStateDirectory state directory}, so that the next scan can skip the GAV directories
+ * that haven't changed since and can't hold anything expired yet.
+ * <p>
+ * One {@link Entry} is kept per leaf directory (version level, holding files only) that survived the scan: its
+ * modification time and the last use and size of each of its artifacts. Last uses only ever grow, so a
+ * directory whose modification time is unchanged and whose oldest artifact was recent enough last time is
+ * still clean.
+ * <p>
+ * Artifacts also carry the modification time they had when a {@link ChecksumVerifier} last found them intact, so
+ * that unchanged artifacts are not hashed again.
+ */
+final class ScanIndex {
+
+    static final String FILE_NAME = ".cleanupIndex";
+
+    private static final int MAGIC = 0x4d524349; // MRCI
+    private static final int VERSION = 2;
+
+    /**
+     * Directory modification times have a one or two seconds granularity on some filesystems, so directories
+     * modified that close to the previous scan can't be trusted to be unchanged.
+     */
+    private static final long TIMESTAMP_GRANULARITY = 2000;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private long written;
+
+    /**
+     * Reads the index of a repository.
+     *
+     * @param directory the repository, or its state directory, see {@link RepositoryCleaner#stateOf}
+     * @return an empty index if there is none yet, or it can't be used
+     */
+    static ScanIndex load(File directory) {
+        ScanIndex index = new ScanIndex();
+        try (InputStream stream = Files.newInputStream(new File(directory, FILE_NAME).toPath());
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return index;
+            index.written = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String location = in.readUTF();
+                long modified = in.readLong();
+                int artifacts = in.readInt();
+                Entry entry = new Entry(modified, Math.min(artifacts, 64));
+                for (int j = 0; j < artifacts; j++) {
+                    entry.add(in.readUTF(), in.readLong(), in.readLong(), in.readLong());
+                }
+                index.entries.put(location, entry);
+            }
+        } catch (NoSuchFileException e) {
+            // first scan
+        } catch (IOException e) {
+            // truncated or corrupted, start over
+            index.entries.clear();
+        }
+        return index;
+    }
+
+    /**
+     * Writes the index in the directory it is read from, replacing the previous one atomically.
+     */
+    void save(File directory) throws IOException {
+        save(directory, entries);
+    }
+
+    /**
+     * Writes the index so far of a scan that isn't over, along with the entries of the previous index for the
+     * directories it hasn't reached yet, so that a scan resuming from there can still skip them.
+     *
+     * @param previous index the scan started from
+     * @param pending  whether a location hasn't been reached yet
+     */
+    void save(File directory, ScanIndex previous, Predicate<String> pending) throws IOException {
+        Map<String, Entry> merged = new HashMap<String, Entry>(entries);
+        for (Map.Entry<String, Entry> e : previous.entries.entrySet()) {
+            if (pending.test(e.getKey())) merged.putIfAbsent(e.getKey(), e.getValue());
+        }
+        save(directory, merged);
+    }
+
+    private static void save(File directory, Map<String, Entry> entries) throws IOException {
+        File tmp = new File(directory, FILE_NAME + ".tmp");
+        try (OutputStream stream = Files.newOutputStream(tmp.toPath());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.modified);
+                out.writeInt(entry.size);
+                for (int i = 0; i < entry.size; i++) {
+                    out.writeUTF(entry.names[i]);
+                    out.writeLong(entry.lastUses[i]);
+                    out.writeLong(entry.sizes[i]);
+                    out.writeLong(entry.verified[i]);
+                }
+            }
+        }
+        Files.move(tmp.toPath(), new File(directory, FILE_NAME).toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Looks up a directory that can be skipped.
+     *
+     * @param location  location of the directory relative to the repository root
+     * @param modified  current modification time of the directory
+     * @param olderThan last use, in seconds, artifacts have to be older than to get removed
+     * @param verifying whether artifacts not verified yet have to be looked at
+     * @return the entry of the directory if it is unchanged and holds nothing to remove, <tt>null</tt> otherwise
+     */
+    Entry unchanged(String location, long modified, long olderThan, boolean verifying) {
+        Entry entry = entries.get(location);
+        if (entry == null || entry.modified != modified || modified >= written - TIMESTAMP_GRANULARITY) return null;
+        if (verifying && !entry.verified()) return null;
+        return entry.oldest() >= olderThan ? entry : null;
+    }
+
+    Entry get(String location) {
+        return entries.get(location);
+    }
+
+    void put(String location, Entry entry) {
+        entries.put(location, entry);
+    }
+
+    void remove(String location) {
+        entries.remove(location);
+    }
+
+    Set<Map.Entry<String, Entry>> entries() {
+        return entries.entrySet();
+    }
+
+    /**
+     * Bytes of the artifacts the scan that wrote the index left, checksums and metadata aside.
+     */
+    long bytes() {
+        long bytes = 0;
+        for (Entry entry : entries.values()) {
+            bytes += entry.bytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * A leaf directory as seen by a scan.
+     */
+    static final class Entry {
+        final long modified;
+        int size;
+        String[] names;
+        long[] lastUses;
+        long[] sizes;
+        /** Modification time the artifact was verified at, {@link #UNVERIFIED} or {@link #NO_CHECKSUM}. */
+        long[] verified;
+
+        static final long UNVERIFIED = 0;
+        static final long NO_CHECKSUM = -1;
+
+        Entry(long modified, int capacity) {
+            this.modified = modified;
+            this.names = new String[Math.max(capacity, 1)];
+            this.lastUses = new long[names.length];
+            this.sizes = new long[names.length];
+            this.verified = new long[names.length];
+        }
+
+        /**
+         * @param lastUse  last use of the artifact, in seconds
+         * @param verified modification time the artifact was verified at, {@link #UNVERIFIED} or
+         *                 {@link #NO_CHECKSUM}
+         */
+        void add(String name, long lastUse, long bytes, long verified) {
+            if (size == names.length) {
+                names = Arrays.copyOf(names, size * 2);
+                lastUses = Arrays.copyOf(lastUses, size * 2);
+                sizes = Arrays.copyOf(sizes, size * 2);
+                this.verified = Arrays.copyOf(this.verified, size * 2);
+            }
+            names[size] = name;
+            lastUses[size] = lastUse;
+            sizes[size] = bytes;
+            this.verified[size] = verified;
+            size++;
+        }
+
+        /**
+         * What is known of the verification of an artifact.
+         *
+         * @return the modification time it was verified at, {@link #NO_CHECKSUM}, or {@link #UNVERIFIED} if it
+         *         wasn't or has changed since
+         */
+        long verified(String name, long bytes) {
+            for (int i = 0; i < size; i++) {
+                if (names[i].equals(name)) return sizes[i] == bytes ? verified[i] : UNVERIFIED;
+            }
+            return UNVERIFIED;
+        }
+
+        synchronized void setVerified(String name, long modified) {
+            for (int i = 0; i < size; i++) {
+                if (names[i].equals(name)) verified[i] = modified;
+            }
+        }
+
+        /**
+         * Whether every artifact has been verified, or has nothing to be verified against.
+         */
+        boolean verified() {
+            for (int i = 0; i < size; i++) {
+                if (verified[i] == UNVERIFIED) return false;
+            }
+            return true;
+        }
+
+        /**
+         * Last use of the least recently used artifact, {@link Long#MAX_VALUE} if there is none.
+         */
+        long oldest() {
+            long oldest = Long.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                oldest = Math.min(oldest, lastUses[i]);
+            }
+            return oldest;
+        }
+
+        /**
+         * Bytes of the artifacts of the directory.
+         */
+        long bytes() {
+            long bytes = 0;
+            for (int i = 0; i < size; i++) {
+                bytes += sizes[i];
+            }
+            return bytes;
+        }
+    }
+}
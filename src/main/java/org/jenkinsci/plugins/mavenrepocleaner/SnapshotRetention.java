@@ -0,0 +1,205 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.SnapshotVersion;
+import org.apache.maven.artifact.repository.metadata.Versioning;
+import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Reader;
+import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Writer;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps only the latest timestamped builds of a <tt>-SNAPSHOT</tt> version directory.
+ * <p>
+ * Timestamped files, <tt>artifactId-version-yyyyMMdd.HHmmss-buildNumber[-classifier].extension</tt>, are grouped by
+ * classifier and extension, and all but the latest builds of each group are deleted with their checksums. The
+ * <tt>maven-metadata*.xml</tt> files of the directory are then rewritten without the <tt>snapshotVersion</tt>
+ * entries of the deleted files, entries of files that were never downloaded being left alone, and their now stale
+ * checksums are deleted. Non timestamped files, as left by <tt>mvn install</tt>, are not concerned.
+ */
+final class SnapshotRetention {
+
+    private static final String SNAPSHOT = "-SNAPSHOT";
+
+    private final int keep;
+
+    /**
+     * @param keep number of builds kept per classifier and extension, at least 1
+     */
+    SnapshotRetention(int keep) {
+        this.keep = Math.max(1, keep);
+    }
+
+    static boolean isSnapshotDirectory(Path dir) {
+        Path name = dir.getFileName();
+        return name != null && name.toString().endsWith(SNAPSHOT) && dir.getParent() != null;
+    }
+
+    /**
+     * Deletes the builds beyond the latest ones from a snapshot directory being walked.
+     *
+     * @param dir      the <tt>-SNAPSHOT</tt> directory
+     * @param location location of <tt>dir</tt> relative to the repository root
+     * @param files    entries of <tt>dir</tt> and their attributes, set to <tt>null</tt> when deleted
+     * @param result   records every removed artifact
+     * @param throttle paces deletes
+     * @return whether anything was deleted
+     */
+    boolean retain(Path dir, String location, Map<String, BasicFileAttributes> files, CleanupResult result,
+                   IoThrottle throttle) throws IOException {
+        String artifactId = dir.getParent().getFileName().toString();
+        String version = dir.getFileName().toString();
+        String prefix = artifactId + '-' + version.substring(0, version.length() - SNAPSHOT.length()) + '-';
+
+        Map<String, List<Build>> groups = new HashMap<String, List<Build>>();
+        for (Map.Entry<String, BasicFileAttributes> entry : files.entrySet()) {
+            if (entry.getValue() == null || !entry.getValue().isRegularFile()) continue;
+            Build build = Build.parse(entry.getKey(), prefix);
+            if (build == null) continue;
+            List<Build> group = groups.get(build.suffix);
+            if (group == null) {
+                group = new ArrayList<Build>();
+                groups.put(build.suffix, group);
+            }
+            group.add(build);
+        }
+
+        Set<String> deleted = new HashSet<String>();
+        for (List<Build> group : groups.values()) {
+            if (group.size() <= keep) continue;
+            group.sort(null);
+            for (Build build : group.subList(keep, group.size())) {
+                long deleting = System.nanoTime();
+                if (!throttle.delete(dir.resolve(build.name), files.get(build.name).size())) {
+                    result.deleted(System.nanoTime() - deleting);
+                    result.error();
+                    continue;
+                }
+                long size = files.put(build.name, null).size();
+                for (String checksum : new String[] {build.name + ".md5", build.name + ".sha1"}) {
+                    BasicFileAttributes attrs = files.get(checksum);
+                    if (attrs != null && throttle.delete(dir.resolve(checksum), attrs.size())) {
+                        size += attrs.size();
+                        files.put(checksum, null);
+                    }
+                }
+                result.deleted(System.nanoTime() - deleting);
+                deleted.add(build.name);
+
+                result.removed(GavResolver.groupIdOf(location), location + '/' + build.name, size);
+            }
+        }
+        if (deleted.isEmpty()) return false;
+
+        for (String name : new ArrayList<String>(files.keySet())) {
+            if (files.get(name) != null && name.startsWith("maven-metadata") && name.endsWith(".xml")
+                    && rewrite(dir.resolve(name), artifactId, deleted)) {
+                for (String checksum : new String[] {name + ".md5", name + ".sha1"}) {
+                    BasicFileAttributes attrs = files.get(checksum);
+                    if (attrs != null && throttle.delete(dir.resolve(checksum), attrs.size())) {
+                        files.put(checksum, null);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drops the entries of deleted files from snapshot metadata.
+     *
+     * @return whether the metadata has been rewritten
+     */
+    private static boolean rewrite(Path file, String artifactId, Set<String> deleted) {
+        try {
+            Metadata metadata;
+            try (InputStream in = Files.newInputStream(file)) {
+                metadata = new MetadataXpp3Reader().read(in, false);
+            }
+            Versioning versioning = metadata.getVersioning();
+            if (versioning == null || versioning.getSnapshotVersions() == null) return false;
+
+            List<SnapshotVersion> kept = new ArrayList<SnapshotVersion>();
+            for (SnapshotVersion snapshotVersion : versioning.getSnapshotVersions()) {
+                String classifier = snapshotVersion.getClassifier();
+                String name = artifactId + '-' + snapshotVersion.getVersion()
+                    + (classifier == null || classifier.isEmpty() ? "" : '-' + classifier)
+                    + '.' + snapshotVersion.getExtension();
+                if (!deleted.contains(name)) kept.add(snapshotVersion);
+            }
+            if (kept.size() == versioning.getSnapshotVersions().size()) return false;
+            versioning.setSnapshotVersions(kept);
+
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                new MetadataXpp3Writer().write(out, metadata);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException | XmlPullParserException e) {
+            // leave it as it is, Maven ignores entries of missing files anyway
+            LOGGER.log(Level.FINE, "Failed to rewrite " + file, e);
+            return false;
+        }
+    }
+
+    /**
+     * A timestamped snapshot file.
+     */
+    static final class Build implements Comparable<Build> {
+        final String name;
+        /** <tt>yyyyMMdd.HHmmss</tt> */
+        final String timestamp;
+        final int buildNumber;
+        /** Classifier and extension, <tt>-sources.jar</tt> or <tt>.pom</tt> for instance. */
+        final String suffix;
+
+        private Build(String name, String timestamp, int buildNumber, String suffix) {
+            this.name = name;
+            this.timestamp = timestamp;
+            this.buildNumber = buildNumber;
+            this.suffix = suffix;
+        }
+
+        /**
+         * @param prefix <tt>artifactId-baseVersion-</tt>
+         * @return <tt>null</tt> if the file isn't a timestamped artifact
+         */
+        static Build parse(String name, String prefix) {
+            if (!name.startsWith(prefix) || name.endsWith(".sha1") || name.endsWith(".md5")) return null;
+            int i = prefix.length();
+            int end = GavResolver.timestamp(name, i);
+            if (end < 0 || end == name.length()) return null;
+            int buildNumber = 0;
+            for (int j = i + 16; j < end; j++) {
+                buildNumber = buildNumber * 10 + (name.charAt(j) - '0');
+            }
+            char next = name.charAt(end);
+            if (next != '.' && next != '-') return null;
+            return new Build(name, name.substring(i, i + 15), buildNumber, name.substring(end));
+        }
+
+        public int compareTo(Build o) {
+            // latest first
+            int c = o.timestamp.compareTo(timestamp);
+            return c != 0 ? c : Integer.compare(o.buildNumber, buildNumber);
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(SnapshotRetention.class.getName());
+}
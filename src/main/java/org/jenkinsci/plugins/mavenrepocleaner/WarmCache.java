@@ -0,0 +1,412 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.WorkspaceListener;
+import hudson.remoting.VirtualChannel;
+import org.jenkinsci.remoting.RoleChecker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Release versions most job repositories of a node use, kept in a repository of their own next to the job
+ * directories, so that repositories created or expired since don't download them all again at once.
+ * <p>
+ * Scheduled clean ups observe which version directories each repository used within the expiration period, from
+ * its {@link ScanIndex} when it has one and by listing it otherwise. Versions used by at least
+ * {@link #minRepositories} repositories, the most used first, are kept until the cache is full, the others are
+ * dropped, before expired repositories are deleted.
+ * <p>
+ * Every repository can be written to by the builds of its job, and Maven trusts what it finds in a local
+ * repository, so nothing one job wrote must reach the others through the cache. Files are copied into the cache,
+ * never linked, so that later writes to the repository they come from don't reach it, and a version is only
+ * cached when each of its artifacts matches the <tt>.sha1</tt> file it came with. They are copied again into the
+ * repositories to seed, so that builds writing into them don't reach the cache either. Only artifacts, their
+ * checksums and <tt>_remote.repositories</tt> files are cached, and only release versions.
+ */
+final class WarmCache {
+
+    /**
+     * Name of the cache directory, created in the data directory of the node, see
+     * {@link MavenRepoCleanerThread#dataDirectory}.
+     */
+    static final String CACHE = ".maven-repo-cleaner-cache";
+
+    /**
+     * Suffix of version directories being filled, moved into place once complete.
+     */
+    private static final String PART = ".part";
+
+    private static final String REMOTE_REPOSITORIES = "_remote.repositories";
+
+    /**
+     * Number of repositories a version has to be used by to be cached, so that no single job decides what the
+     * others get seeded with.
+     */
+    static int minRepositories = Math.max(2, Integer.getInteger(WarmCache.class.getName() + ".minRepositories", 2));
+
+    private final Path cache;
+    private final long size;
+    private final long since;
+    private final IoThrottle throttle;
+    private final Map<String, Version> versions = new HashMap<String, Version>();
+
+    /**
+     * @param cache    directory of the cache
+     * @param size     bytes the cache holds at most
+     * @param since    time, in milliseconds, versions have to be used since to count
+     * @param throttle paces the file system operations
+     */
+    WarmCache(Path cache, long size, long since, IoThrottle throttle) {
+        this.cache = cache;
+        this.size = size;
+        this.since = TimeUnit.MILLISECONDS.toSeconds(since);
+        this.throttle = throttle;
+    }
+
+    /**
+     * Counts the release versions a repository used.
+     *
+     * @param index what its last scan saw, walked again when empty
+     */
+    void observe(File repository, ScanIndex index) throws IOException {
+        if (!repository.isDirectory()) return;
+        Path root = repository.toPath();
+        if (!index.entries().isEmpty()) {
+            for (Map.Entry<String, ScanIndex.Entry> e : index.entries()) {
+                ScanIndex.Entry entry = e.getValue();
+                if (isSnapshot(e.getKey()) || entry.size == 0) continue;
+                long bytes = 0;
+                for (int i = 0; i < entry.size; i++) {
+                    bytes += entry.sizes[i];
+                }
+                if (recent(entry)) {
+                    observed(e.getKey(), root.resolve(e.getKey().substring(1)), bytes);
+                }
+            }
+            return;
+        }
+
+        final Deque<long[]> stack = new ArrayDeque<long[]>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                throttle.stat(1);
+                String name = dir.getFileName().toString();
+                if (isSnapshot(name) || (stack.size() == 1 && ArtifactLocks.LOCKS.equals(name))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                // bytes, artifacts used within the period
+                stack.push(new long[2]);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                throttle.stat(1);
+                String name = file.getFileName().toString();
+                if (attrs.isRegularFile() && isArtifact(name)) {
+                    long[] current = stack.peek();
+                    current[0] += attrs.size();
+                    if (attrs.lastAccessTime().to(TimeUnit.SECONDS) >= since) current[1]++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                long[] current = stack.pop();
+                if (exc == null && current[1] > 0 && stack.size() >= 3) {
+                    observed(location(root, dir), dir, current[0]);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private boolean recent(ScanIndex.Entry entry) {
+        for (int i = 0; i < entry.size; i++) {
+            if (entry.lastUses[i] >= since) return true;
+        }
+        return false;
+    }
+
+    private void observed(String location, Path dir, long bytes) {
+        Version version = versions.get(location);
+        if (version == null) {
+            versions.put(location, new Version(dir, bytes));
+        } else {
+            version.repositories++;
+        }
+    }
+
+    /**
+     * Fills the cache with the versions used by the most repositories, and drops the others.
+     */
+    void refresh(RepositoryExpirationCallable.Summary summary) throws IOException {
+        List<Map.Entry<String, Version>> ranked = new ArrayList<Map.Entry<String, Version>>(versions.entrySet());
+        // most used first, smallest first among equals
+        ranked.sort((a, b) -> a.getValue().repositories != b.getValue().repositories
+            ? Integer.compare(b.getValue().repositories, a.getValue().repositories)
+            : Long.compare(a.getValue().bytes, b.getValue().bytes));
+        Map<String, Version> kept = new HashMap<String, Version>();
+        long total = 0;
+        for (Map.Entry<String, Version> e : ranked) {
+            if (e.getValue().repositories < minRepositories) break;
+            if (total + e.getValue().bytes > size) continue;
+            kept.put(e.getKey(), e.getValue());
+            total += e.getValue().bytes;
+        }
+
+        Set<String> cached = new HashSet<String>();
+        for (Path dir : versionDirectories(cache)) {
+            String location = location(cache, dir);
+            if (dir.getFileName().toString().endsWith(PART) || !kept.containsKey(location)) {
+                drop(dir);
+            } else {
+                cached.add(location);
+            }
+        }
+        for (Map.Entry<String, Version> e : kept.entrySet()) {
+            if (cached.contains(e.getKey())) continue;
+            try {
+                if (!add(e.getKey(), e.getValue().dir)) {
+                    total -= e.getValue().bytes;
+                    continue;
+                }
+            } catch (IOException x) {
+                // removed meanwhile, taken next time
+                LOGGER.log(Level.FINE, "Failed to cache " + e.getValue().dir, x);
+                total -= e.getValue().bytes;
+                continue;
+            }
+            cached.add(e.getKey());
+        }
+        summary.cached = cached.size();
+        summary.cachedBytes = total;
+    }
+
+    /**
+     * Copies a version directory into the cache, verifying the copies.
+     *
+     * @return whether it is cached, not when an artifact has no <tt>.sha1</tt> file or doesn't match it
+     */
+    private boolean add(String location, Path source) throws IOException {
+        Path target = cache.resolve(location.substring(1));
+        Path part = target.resolveSibling(target.getFileName() + PART);
+        Files.createDirectories(part);
+        List<Path> artifacts = new ArrayList<Path>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(source)) {
+            for (Path file : entries) {
+                String name = file.getFileName().toString();
+                if (!Files.isRegularFile(file) || !isCached(name)) continue;
+                Files.copy(file, part.resolve(name), StandardCopyOption.COPY_ATTRIBUTES);
+                if (isArtifact(name)) artifacts.add(part.resolve(name));
+            }
+        }
+        // the copies, which nothing else writes to
+        for (Path artifact : artifacts) {
+            String sha1 = ChecksumVerifier.stored(artifact, ChecksumVerifier.SHA1);
+            if (sha1 == null || !sha1.equals(ChecksumVerifier.digest(artifact, ChecksumVerifier.SHA1))) {
+                LOGGER.fine("Not caching " + source + ", " + artifact.getFileName() + " doesn't match its checksum");
+                drop(part);
+                return false;
+            }
+        }
+        Files.move(part, target, StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+
+    private void drop(Path dir) throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path file : entries) {
+                throttle.delete(file, 0);
+            }
+        }
+        throttle.delete(dir, 0);
+        NioRepositoryWalker.prune(dir.getParent(), cache, throttle);
+    }
+
+    /**
+     * Seeds a repository with the content of the cache of a node, leaving the files it already has alone.
+     *
+     * @return the number of version directories seeded
+     */
+    static int seed(Path cache, Path repository, IoThrottle throttle) throws IOException {
+        if (!Files.isDirectory(cache)) return 0;
+        int seeded = 0;
+        for (Path dir : versionDirectories(cache)) {
+            if (dir.getFileName().toString().endsWith(PART)) continue;
+            Path target = repository.resolve(cache.relativize(dir).toString());
+            Files.createDirectories(target);
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path file : entries) {
+                    throttle.stat(1);
+                    try {
+                        Files.copy(file, target.resolve(file.getFileName().toString()),
+                            StandardCopyOption.COPY_ATTRIBUTES);
+                    } catch (FileAlreadyExistsException e) {
+                        // the repository has its own
+                    } catch (NoSuchFileException e) {
+                        // dropped from the cache meanwhile
+                    }
+                }
+            }
+            seeded++;
+        }
+        return seeded;
+    }
+
+    /**
+     * Removes the cache kept in a directory, once disabled.
+     */
+    static void dispose(File dir, long now, IoThrottle throttle) throws IOException {
+        File cache = new File(dir, CACHE);
+        if (cache.isDirectory()) RepositoryReaper.dispose(dir, cache, "cache", now, throttle);
+    }
+
+    /**
+     * Leaf directories of the cache, those holding the files of a version.
+     */
+    private static Set<Path> versionDirectories(Path cache) throws IOException {
+        final Set<Path> dirs = new LinkedHashSet<Path>();
+        if (!Files.isDirectory(cache)) return dirs;
+        Files.walkFileTree(cache, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (!file.getParent().equals(cache)) dirs.add(file.getParent());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return dirs;
+    }
+
+    private static String location(Path root, Path dir) {
+        return '/' + root.relativize(dir).toString().replace(File.separatorChar, '/');
+    }
+
+    private static boolean isSnapshot(String location) {
+        return location.endsWith("-SNAPSHOT");
+    }
+
+    /**
+     * Whether a file of a version directory is cached: an artifact, a checksum, or where it was downloaded from.
+     */
+    private static boolean isCached(String name) {
+        if (REMOTE_REPOSITORIES.equals(name)) return true;
+        if (name.endsWith(".sha1") || name.endsWith(".md5")) name = name.substring(0, name.lastIndexOf('.'));
+        return isArtifact(name);
+    }
+
+    private static boolean isArtifact(String name) {
+        return !NioRepositoryWalker.METADATA.contains(name) && !name.startsWith(".") && !name.startsWith("_")
+            && !name.endsWith(".sha1") && !name.endsWith(".md5") && !name.endsWith(".lastUpdated");
+    }
+
+    /**
+     * A version directory observed in the repositories.
+     */
+    private static final class Version {
+        /** Where its files are taken from. */
+        final Path dir;
+        final long bytes;
+        int repositories = 1;
+
+        Version(Path dir, long bytes) {
+            this.dir = dir;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Seeds the repository of a build from the cache of its node when the repository doesn't exist yet.
+     */
+    @Extension
+    public static class Seeder extends WorkspaceListener {
+
+        @Override
+        public void beforeUse(AbstractBuild b, FilePath workspace, BuildListener listener) {
+            if (MavenRepoCleanerProperty.DESCRIPTOR.getWarmCacheSize() <= 0
+                    || !RepositoryRegistry.isCleanedUp(b.getProject())) {
+                return;
+            }
+            FilePath repository = RepositoryRegistry.repositoryOf(b, workspace);
+            FilePath data = MavenRepoCleanerThread.dataDirectory(b.getBuiltOn());
+            if (repository == null || data == null) return;
+            try {
+                int seeded = repository.act(new SeedCallable(data.child(CACHE).getRemote(),
+                    MavenRepoCleanerProperty.DESCRIPTOR.getThrottle()));
+                if (seeded > 0) {
+                    listener.getLogger().println("Seeded " + repository.getRemote() + " with " + seeded
+                        + " versions of the Maven repository cache of the node");
+                }
+            } catch (IOException e) {
+                e.printStackTrace(listener.error("Failed to seed " + repository.getRemote()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Seeds a repository that doesn't exist yet from the cache of its node.
+     */
+    static final class SeedCallable implements FilePath.FileCallable<Integer> {
+        private final String cache;
+        private final IoThrottle throttle;
+
+        SeedCallable(String cache, IoThrottle throttle) {
+            this.cache = cache;
+            this.throttle = throttle;
+        }
+
+        public Integer invoke(File repository, VirtualChannel channel) throws IOException {
+            File cache = new File(this.cache);
+            if (repository.exists() || !cache.isDirectory()) return 0;
+            return seed(cache.toPath(), repository.toPath(), throttle);
+        }
+
+        @Override
+        public void checkRoles(RoleChecker checker) throws SecurityException {
+            // no much to control here
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(WarmCache.class.getName());
+}
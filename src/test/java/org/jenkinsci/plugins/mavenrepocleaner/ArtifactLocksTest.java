@@ -0,0 +1,79 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ArtifactLocksTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void namedAsResolverFileGavLocks() {
+        assertEquals("artifact~org.acme.tools~lib~1.0.lock", ArtifactLocks.name("/org/acme/tools/lib/1.0"));
+        assertEquals("artifact~org.acme.tools~lib~1.0.lock", ArtifactLocks.name("org/acme/tools/lib/1.0"));
+        assertEquals("artifact~acme~lib~1.0-SNAPSHOT.lock", ArtifactLocks.name("/acme/lib/1.0-SNAPSHOT"));
+    }
+
+    @Test
+    public void shortLocationsHaveNoLock() throws Exception {
+        assertNull(ArtifactLocks.name("/lib/1.0"));
+        assertNull(ArtifactLocks.name("lib/1.0"));
+        assertNull(ArtifactLocks.name("/1.0"));
+        assertNull(ArtifactLocks.name(""));
+
+        Path repository = tmp.newFolder().toPath();
+        assertSame(ArtifactLocks.Lock.NONE, ArtifactLocks.tryLock(repository, "/lib/1.0"));
+        ArtifactLocks.Lock.NONE.close();
+        assertFalse(Files.exists(repository.resolve(ArtifactLocks.LOCKS)));
+    }
+
+    @Test
+    public void heldLocksAreLeftAlone() throws Exception {
+        Path repository = tmp.newFolder().toPath();
+        Path file = repository.resolve(ArtifactLocks.LOCKS).resolve("artifact~org.acme~lib~1.0.lock");
+        Files.createDirectories(file.getParent());
+        // as resolver holds it while resolving
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock held = channel.lock()) {
+            assertNull(ArtifactLocks.tryLock(repository, "/org/acme/lib/1.0"));
+        }
+
+        ArtifactLocks.Lock lock = ArtifactLocks.tryLock(repository, "/org/acme/lib/1.0");
+        assertNotNull(lock);
+        assertNull(ArtifactLocks.tryLock(repository, "/org/acme/lib/1.0"));
+        lock.close();
+        assertFalse(Files.exists(file));
+
+        lock = ArtifactLocks.tryLock(repository, "/org/acme/lib/1.0");
+        assertNotNull(lock);
+        lock.close();
+    }
+
+    @Test
+    public void lockDirectoryLeavesTheRootAsBuildsLeftIt() throws Exception {
+        Path repository = tmp.newFolder().toPath();
+        FileTime modified = FileTime.fromMillis(SyntheticRepository.REFERENCE_TIME);
+        Files.setLastModifiedTime(repository, modified);
+        ArtifactLocks.Lock lock = ArtifactLocks.tryLock(repository, "/org/acme/lib/1.0");
+        assertNotNull(lock);
+        assertTrue(Files.isDirectory(repository.resolve(ArtifactLocks.LOCKS)));
+        lock.close();
+        assertEquals(modified, Files.getLastModifiedTime(repository));
+    }
+}
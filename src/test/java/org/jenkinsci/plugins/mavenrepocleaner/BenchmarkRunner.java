@@ -0,0 +1,35 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import org.junit.Test;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks. Not picked up by a plain build, run with <tt>mvn test -Dbenchmark</tt>; results are
+ * written to <tt>jmh-report.json</tt>.
+ * <p>
+ * <tt>-Dbenchmark.artifacts=100,1000</tt> and the like override the parameters of
+ * {@link RepositoryCleanerBenchmark}.
+ */
+public class BenchmarkRunner {
+
+    @Test
+    public void runJmhBenchmarks() throws Exception {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+            .include(RepositoryCleanerBenchmark.class.getName() + ".*")
+            .addProfiler(GCProfiler.class)
+            .shouldFailOnError(true)
+            .result("jmh-report.json")
+            .resultFormat(ResultFormatType.JSON);
+        for (String param : new String[] {"artifacts", "engine", "parallelism", "groupDepth", "snapshotRatio"}) {
+            String values = System.getProperty("benchmark." + param);
+            if (values != null) options.param(param, values.split(","));
+        }
+        String dir = System.getProperty("benchmark.repository.dir");
+        if (dir != null) options.jvmArgsAppend("-Dbenchmark.repository.dir=" + dir);
+        new Runner(options.build()).run();
+    }
+}
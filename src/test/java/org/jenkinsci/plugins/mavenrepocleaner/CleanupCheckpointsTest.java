@@ -0,0 +1,66 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import org.jenkinsci.plugins.mavenrepocleaner.RepositoryExpirationCallable.Policy;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class CleanupCheckpointsTest {
+
+    private static final long NOW = SyntheticRepository.REFERENCE_TIME;
+
+    @Test
+    public void jobsCreatedSinceGetTheirPolicy() {
+        CleanupCheckpoints.Run run = new CleanupCheckpoints.Run(NOW, policies("a", Policy.DELETE));
+        Map<String, Policy> policies = run.policies(policies("a", Policy.DELETE, "b", Policy.EXPIRE_SINCE_ADDED));
+        assertEquals(policies("a", Policy.DELETE, "b", Policy.EXPIRE_SINCE_ADDED), policies);
+    }
+
+    @Test
+    public void jobsNowBuildingOrNoLongerCleanedUpAreSpared() {
+        CleanupCheckpoints.Run run = new CleanupCheckpoints.Run(NOW,
+            policies("a", Policy.DELETE, "b", Policy.EXPIRE_SINCE_CHANGED));
+        Map<String, Policy> policies = run.policies(policies("a", Policy.EVICT_COLD, "b", Policy.KEEP));
+        assertEquals(policies("a", Policy.EVICT_COLD, "b", Policy.KEEP), policies);
+    }
+
+    @Test
+    public void otherChangesWaitForTheNextRun() {
+        CleanupCheckpoints.Run run = new CleanupCheckpoints.Run(NOW,
+            policies("a", Policy.KEEP, "b", Policy.EVICT_COLD, "c", Policy.DELETE));
+        Map<String, Policy> policies = run.policies(
+            policies("a", Policy.DELETE, "b", Policy.EXPIRE_SINCE_CHANGED, "c", Policy.EXPIRE_SINCE_CHANGED));
+        assertEquals(policies("a", Policy.KEEP, "b", Policy.EVICT_COLD, "c", Policy.DELETE), policies);
+    }
+
+    @Test
+    public void jobsGoneSinceKeepTheirPolicy() {
+        CleanupCheckpoints.Run run = new CleanupCheckpoints.Run(NOW,
+            policies("a", Policy.EXPIRE_SINCE_CHANGED, "b", Policy.DELETE));
+        Map<String, Policy> policies = run.policies(policies("a", Policy.EXPIRE_SINCE_CHANGED));
+        assertEquals(policies("a", Policy.EXPIRE_SINCE_CHANGED, "b", Policy.DELETE), policies);
+    }
+
+    @Test
+    public void runPoliciesAreLeftAlone() {
+        Map<String, Policy> started = policies("a", Policy.DELETE);
+        CleanupCheckpoints.Run run = new CleanupCheckpoints.Run(NOW, started);
+        started.put("b", Policy.DELETE);
+        Map<String, Policy> policies = run.policies(policies("a", Policy.KEEP, "c", Policy.DELETE));
+        assertNotSame(run.policies, policies);
+        assertEquals(policies("a", Policy.DELETE), run.policies);
+        assertEquals(policies("a", Policy.KEEP, "c", Policy.DELETE), policies);
+    }
+
+    private static Map<String, Policy> policies(Object... jobsAndPolicies) {
+        Map<String, Policy> policies = new HashMap<String, Policy>();
+        for (int i = 0; i < jobsAndPolicies.length; i += 2) {
+            policies.put((String) jobsAndPolicies[i], (Policy) jobsAndPolicies[i + 1]);
+        }
+        return policies;
+    }
+}
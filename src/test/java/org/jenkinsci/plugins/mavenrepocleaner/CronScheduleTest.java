@@ -0,0 +1,85 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import antlr.ANTLRException;
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CronScheduleTest {
+
+    /** 2023-11-14 22:13:20 in the default timezone. */
+    private static final long NOW = time(2023, 11, 14, 22, 13) + TimeUnit.SECONDS.toMillis(20);
+
+    @Test
+    public void firesAtTheNextMatchingMinute() throws Exception {
+        CronSchedule schedule = CronSchedule.parse("30 3 * * *");
+        assertEquals(time(2023, 11, 15, 3, 30), schedule.next(NOW));
+    }
+
+    @Test
+    public void nextFireIsStrictlyAfter() throws Exception {
+        CronSchedule schedule = CronSchedule.parse("30 3 * * *");
+        long fire = time(2023, 11, 15, 3, 30);
+        assertEquals(fire, schedule.next(fire - 1));
+        assertEquals(time(2023, 11, 16, 3, 30), schedule.next(fire));
+    }
+
+    @Test
+    public void hashesToTheFirstValueWithoutAJobToHash() throws Exception {
+        CronSchedule schedule = CronSchedule.parse("H H * * *");
+        assertEquals(time(2023, 11, 15, 0, 0), schedule.next(NOW));
+    }
+
+    @Test
+    public void skipsTimezoneBlankAndCommentLines() throws Exception {
+        CronSchedule schedule = CronSchedule.parse("TZ=" + TimeZone.getDefault().getID() + "\n"
+            + "# nightly\n"
+            + "\n"
+            + "  0 3 * * *  \n"
+            + "# and at lunch time\r\n"
+            + "30 12 * * *\n");
+        long night = time(2023, 11, 15, 3, 0);
+        assertEquals(night, schedule.next(NOW));
+        assertEquals(time(2023, 11, 15, 12, 30), schedule.next(night));
+    }
+
+    @Test
+    public void neverFiresWithoutCronLines() throws Exception {
+        assertTrue(CronSchedule.parse(null).isEmpty());
+        CronSchedule schedule = CronSchedule.parse("# disabled\n\n");
+        assertTrue(schedule.isEmpty());
+        assertEquals(Long.MAX_VALUE, schedule.next(NOW));
+    }
+
+    @Test(expected = ANTLRException.class)
+    public void rejectsInvalidLines() throws Exception {
+        CronSchedule.parse("# hourly\n61 * * * *");
+    }
+
+    @Test
+    public void missedFiresAreCoalesced() throws Exception {
+        CronSchedule schedule = CronSchedule.parse("0 * * * *");
+        // fired at 10:00, then the controller was down until 15:20
+        long nextFire = schedule.next(time(2023, 11, 14, 10, 0));
+        int runs = 0;
+        for (long now = time(2023, 11, 14, 15, 20); now < time(2023, 11, 14, 16, 0); now += TimeUnit.MINUTES.toMillis(1)) {
+            // as MavenRepoCleanerThread checks every minute
+            if (now < nextFire) continue;
+            runs++;
+            nextFire = schedule.next(now);
+        }
+        assertEquals(1, runs);
+        assertEquals(time(2023, 11, 14, 16, 0), nextFire);
+    }
+
+    private static long time(int year, int month, int day, int hour, int minute) {
+        Calendar cal = new GregorianCalendar(year, month - 1, day, hour, minute);
+        return cal.getTimeInMillis();
+    }
+}
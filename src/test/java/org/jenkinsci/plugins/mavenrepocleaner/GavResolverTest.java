@@ -0,0 +1,137 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GavResolverTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void releaseArtifacts() {
+        GavResolver gavs = new GavResolver();
+        assertTrue(gavs.enter("/org/acme/lib/1.0"));
+        assertEquals("org.acme", gavs.groupId("lib-1.0.jar"));
+        assertEquals("org.acme", gavs.groupId("lib-1.0.pom"));
+        assertEquals("org.acme", gavs.groupId("lib-1.0.tar.gz"));
+    }
+
+    @Test
+    public void classifiedArtifacts() {
+        GavResolver gavs = new GavResolver();
+        assertTrue(gavs.enter("/org/acme/lib/1.0"));
+        assertEquals("org.acme", gavs.groupId("lib-1.0-sources.jar"));
+        assertEquals("org.acme", gavs.groupId("lib-1.0-tests.jar"));
+        assertEquals("org.acme", gavs.groupId("lib-1.0-jdk8-x86_64.zip"));
+        // as M2GavCalculator reads it in a release directory
+        assertEquals("org.acme", gavs.groupId("lib-1.0-SNAPSHOT.jar"));
+        // a classifier without an extension, or an empty one
+        assertNull(gavs.groupId("lib-1.0-sources"));
+        assertNull(gavs.groupId("lib-1.0-.jar"));
+    }
+
+    @Test
+    public void snapshotArtifacts() {
+        GavResolver gavs = new GavResolver();
+        assertTrue(gavs.enter("/org/acme/lib/1.0-SNAPSHOT"));
+        assertEquals("org.acme", gavs.groupId("lib-1.0-SNAPSHOT.jar"));
+        assertEquals("org.acme", gavs.groupId("lib-1.0-SNAPSHOT-sources.jar"));
+        assertEquals("org.acme", gavs.groupId("lib-1.0-20231114.221320-1.jar"));
+        assertEquals("org.acme", gavs.groupId("lib-1.0-20231114.221320-12-tests.jar"));
+    }
+
+    @Test
+    public void timestampsWithoutABuildNumber() {
+        GavResolver gavs = new GavResolver();
+        assertTrue(gavs.enter("/org/acme/lib/1.0-SNAPSHOT"));
+        assertNull(gavs.groupId("lib-1.0-20231114.221320.jar"));
+        assertNull(gavs.groupId("lib-1.0-20231114.221320-.jar"));
+        assertNull(gavs.groupId("lib-1.0-20231114.2213-1.jar"));
+
+        assertEquals(-1, GavResolver.timestamp("lib-1.0-20231114.221320.jar", 8));
+        assertEquals(-1, GavResolver.timestamp("lib-1.0-20231114.221320-", 8));
+        assertEquals("lib-1.0-20231114.221320-3".length(), GavResolver.timestamp("lib-1.0-20231114.221320-3.jar", 8));
+    }
+
+    @Test
+    public void otherFilesAreNotArtifacts() {
+        GavResolver gavs = new GavResolver();
+        assertTrue(gavs.enter("/org/acme/lib/1.0"));
+        assertNull(gavs.groupId("maven-metadata.xml"));
+        assertNull(gavs.groupId("_remote.repositories"));
+        assertNull(gavs.groupId("lib-1.0"));
+        assertNull(gavs.groupId("lib-1.0."));
+        assertNull(gavs.groupId("lib-1.01.jar"));
+        assertNull(gavs.groupId("other-1.0.jar"));
+    }
+
+    @Test
+    public void locationsThatCannotBeGavDirectories() {
+        GavResolver gavs = new GavResolver();
+        assertFalse(gavs.enter("/lib/1.0"));
+        assertFalse(gavs.enter("/1.0"));
+        assertFalse(gavs.enter("/org/acme/lib/"));
+        assertFalse(gavs.enter("/org/acme//1.0"));
+        assertNull(gavs.groupId("lib-1.0.jar"));
+
+        assertEquals("", GavResolver.groupIdOf("/lib/1.0"));
+        assertEquals("org.acme.tools", GavResolver.groupIdOf("/org/acme/tools/lib/1.0"));
+        assertEquals("org.acme.tools", GavResolver.groupIdOf("org/acme/tools/lib/1.0"));
+    }
+
+    @Test
+    public void groupIdsAreShared() {
+        GavResolver gavs = new GavResolver();
+        assertTrue(gavs.enter("/org/acme/lib/1.0"));
+        String groupId = gavs.groupId("lib-1.0.jar");
+        assertTrue(gavs.enter("/org/acme/lib/2.0"));
+        assertTrue(gavs.enter("/org/acme/other/1.0"));
+        assertSame(groupId, gavs.groupId("other-1.0.jar"));
+    }
+
+    @Test
+    public void classifiedArtifactsAreCleanedUp() throws IOException {
+        Path repository = tmp.newFolder().toPath();
+        new SyntheticRepository().artifacts(10).versions(1).snapshotRatio(0).staleRatio(0).seed(42)
+            .generate(repository);
+        Path version = repository.resolve("org/s0/g0/artifact0/1.0");
+        long stale = SyntheticRepository.REFERENCE_TIME - TimeUnit.DAYS.toMillis(SyntheticRepository.STALE_AGE_DAYS);
+        Path sources = write(version.resolve("artifact0-1.0-sources.jar"), stale);
+        Path sourcesSha1 = write(version.resolve("artifact0-1.0-sources.jar.sha1"), stale);
+        Path tests = write(version.resolve("artifact0-1.0-tests.jar"), SyntheticRepository.REFERENCE_TIME);
+        Path notes = write(version.resolve("NOTES.txt"), stale);
+
+        RepositoryCleaner cleaner = new RepositoryCleaner(
+            SyntheticRepository.REFERENCE_TIME - TimeUnit.DAYS.toMillis(1));
+        cleaner.setEngine(RepositoryCleaner.Engine.NIO);
+        CleanupResult result = cleaner.cleanup(repository.toFile());
+
+        assertEquals(1, result.getArtifacts());
+        assertFalse(Files.exists(sources));
+        assertFalse(Files.exists(sourcesSha1));
+        assertTrue(Files.exists(tests));
+        assertTrue(Files.exists(notes));
+        assertTrue(Files.exists(version.resolve("artifact0-1.0.jar")));
+    }
+
+    private static Path write(Path file, long lastUse) throws IOException {
+        Files.write(file, new byte[16]);
+        Files.setAttribute(file, "lastAccessTime", FileTime.fromMillis(lastUse));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastUse));
+        return file;
+    }
+}
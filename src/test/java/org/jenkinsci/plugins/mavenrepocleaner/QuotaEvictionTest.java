@@ -0,0 +1,146 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QuotaEvictionTest {
+
+    private static final int ARTIFACTS = 10;
+    private static final int JAR = 1024;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void evictsTheLeastRecentlyUsedUntilUnderQuota() throws IOException {
+        Path repository = repository();
+        long quota = artifactBytes(repository) - 2 * JAR - 1;
+
+        CleanupResult result = clean(quota, repository);
+
+        assertEquals(3, result.getArtifacts());
+        for (int i = 0; i < ARTIFACTS; i++) {
+            assertEquals("artifact" + i, i >= 3, Files.exists(jar(repository, i)));
+            assertTrue(Files.exists(pom(repository, i)));
+        }
+        assertFalse(Files.exists(jar(repository, 0).resolveSibling("artifact0-1.0.jar.sha1")));
+        assertTrue(result.getUsage().get(repository.toFile().getAbsolutePath()) <= quota);
+    }
+
+    @Test
+    public void hardlinkedCopiesCountOnce() throws IOException {
+        Path first = repository();
+        Path second = repository();
+        for (int i = 0; i < ARTIFACTS; i++) {
+            Files.delete(jar(second, i));
+            Files.createLink(jar(second, i), jar(first, i));
+        }
+        long bytes = artifactBytes(first) + artifactBytes(second) - ARTIFACTS * JAR;
+
+        // both copies fit, once
+        CleanupResult result = clean(bytes, first, second);
+        assertEquals(0, result.getArtifacts());
+
+        // the least recently used jar goes, with all its links
+        result = clean(bytes - 1, first, second);
+        assertEquals(2, result.getArtifacts());
+        assertFalse(Files.exists(jar(first, 0)));
+        assertFalse(Files.exists(jar(second, 0)));
+        assertTrue(Files.exists(jar(first, 1)));
+        assertTrue(Files.exists(jar(second, 1)));
+    }
+
+    @Test
+    public void inUseDirectoriesAreNeverEvicted() throws IOException {
+        Path repository = repository();
+        long since = SyntheticRepository.REFERENCE_TIME + TimeUnit.HOURS.toMillis(1);
+        // resolved by the running build
+        Files.setLastModifiedTime(jar(repository, 0).getParent(), FileTime.fromMillis(since + 1000));
+
+        RepositoryCleaner cleaner = cleaner(1);
+        cleaner.setInUseSince(Collections.singletonMap(repository.toFile().getPath(), since));
+        CleanupResult result = cleaner.cleanup(repository.toFile());
+
+        assertEquals(2 * (ARTIFACTS - 1), result.getArtifacts());
+        assertTrue(Files.exists(jar(repository, 0)));
+        assertTrue(Files.exists(pom(repository, 0)));
+        for (int i = 1; i < ARTIFACTS; i++) {
+            assertFalse(Files.exists(jar(repository, i)));
+        }
+    }
+
+    /**
+     * A repository whose jars were last used one minute apart, <tt>artifact0</tt> first, and whose POMs were used
+     * after all of them.
+     */
+    private Path repository() throws IOException {
+        Path repository = tmp.newFolder().toPath();
+        new SyntheticRepository().artifacts(ARTIFACTS).versions(1).snapshotRatio(0).artifactSize(JAR)
+            .generate(repository);
+        for (int i = 0; i < ARTIFACTS; i++) {
+            use(jar(repository, i), SyntheticRepository.REFERENCE_TIME + TimeUnit.MINUTES.toMillis(i));
+            use(pom(repository, i), SyntheticRepository.REFERENCE_TIME + TimeUnit.DAYS.toMillis(1));
+        }
+        // downloaded long before any build started
+        try (Stream<Path> paths = Files.walk(repository)) {
+            for (Path dir : paths.filter(Files::isDirectory).collect(Collectors.toList())) {
+                Files.setLastModifiedTime(dir, FileTime.fromMillis(SyntheticRepository.REFERENCE_TIME));
+            }
+        }
+        return repository;
+    }
+
+    private static RepositoryCleaner cleaner(long quota) {
+        // nothing old enough to be removed regardless of the quota
+        RepositoryCleaner cleaner = new RepositoryCleaner(0);
+        cleaner.setEngine(RepositoryCleaner.Engine.NIO);
+        cleaner.setQuota(quota);
+        return cleaner;
+    }
+
+    private static CleanupResult clean(long quota, Path... repositories) throws IOException {
+        List<File> files = Arrays.stream(repositories).map(Path::toFile).collect(Collectors.toList());
+        return cleaner(quota).cleanup(files);
+    }
+
+    /**
+     * Bytes of the jars and POMs of a repository, as the quota counts them.
+     */
+    private static long artifactBytes(Path repository) throws IOException {
+        long bytes = 0;
+        for (int i = 0; i < ARTIFACTS; i++) {
+            bytes += Files.size(jar(repository, i)) + Files.size(pom(repository, i));
+        }
+        return bytes;
+    }
+
+    private static Path jar(Path repository, int artifact) {
+        return repository.resolve("org/s0/g0/artifact" + artifact + "/1.0/artifact" + artifact + "-1.0.jar");
+    }
+
+    private static Path pom(Path repository, int artifact) {
+        return repository.resolve("org/s0/g0/artifact" + artifact + "/1.0/artifact" + artifact + "-1.0.pom");
+    }
+
+    private static void use(Path file, long time) throws IOException {
+        Files.getFileAttributeView(file, BasicFileAttributeView.class).setTimes(null, FileTime.fromMillis(time), null);
+    }
+}
@@ -0,0 +1,110 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link RepositoryCleaner#clean(File)} over {@link SyntheticRepository synthetic repositories} of
+ * increasing size, in clean ups and files scanned per second. Run with the GC profiler, as {@link BenchmarkRunner}
+ * does, for the allocation rate.
+ * <p>
+ * Each invocation cleans a freshly generated repository, which costs far more than a clean up and is done outside
+ * of the measurement. Repositories are generated in <tt>-Dbenchmark.repository.dir</tt>, the temporary directory by
+ * default; point it at a tmpfs such as <tt>/dev/shm</tt> to measure the cleaner rather than the disk.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RepositoryCleanerBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int artifacts;
+
+    @Param({"NIO", "WALKER"})
+    public RepositoryCleaner.Engine engine;
+
+    @Param({"1"})
+    public int parallelism;
+
+    @Param({"3"})
+    public int groupDepth;
+
+    @Param({"0.2"})
+    public double snapshotRatio;
+
+    private Path base;
+    private Path repository;
+    private int generated;
+
+    @Setup(Level.Trial)
+    public void createBase() throws IOException {
+        String dir = System.getProperty("benchmark.repository.dir");
+        base = dir == null ? Files.createTempDirectory("maven-repo-cleaner-benchmark")
+            : Files.createTempDirectory(Paths.get(dir), "maven-repo-cleaner-benchmark");
+    }
+
+    @Setup(Level.Invocation)
+    public void generate() throws IOException {
+        repository = base.resolve("repository");
+        FileUtils.deleteDirectory(repository.toFile());
+        generated = new SyntheticRepository()
+            .artifacts(artifacts)
+            .groupDepth(groupDepth)
+            .snapshotRatio(snapshotRatio)
+            .generate(repository);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteBase() throws IOException {
+        FileUtils.deleteDirectory(base.toFile());
+    }
+
+    @Benchmark
+    public Collection<String> clean(FilesScanned counter) throws IOException {
+        RepositoryCleaner cleaner = new RepositoryCleaner(SyntheticRepository.REFERENCE_TIME - TimeUnit.DAYS.toMillis(1));
+        cleaner.setEngine(engine);
+        cleaner.setParallelism(parallelism);
+        cleaner.setIncremental(false);
+        Collection<String> removed = cleaner.clean(repository.toFile());
+        counter.files += generated;
+        return removed;
+    }
+
+    /**
+     * Files of the repositories cleaned, reported by JMH as files per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class FilesScanned {
+        public long files;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            files = 0;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import org.jenkinsci.plugins.mavenrepocleaner.RepositoryExpirationCallable.Policy;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RepositoryExpirationCallableTest {
+
+    private static final String REPOSITORY = "workspace/.repository";
+    private static final long EXPIRATION = TimeUnit.DAYS.toMillis(7);
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void quotaPassesDoNotPostponeExpiry() throws Exception {
+        File root = tmp.newFolder();
+        File data = tmp.newFolder();
+        long now = System.currentTimeMillis();
+        long changed = now - TimeUnit.DAYS.toMillis(3);
+        File idle = repository(root, "idle", changed);
+        File building = repository(root, "building", changed);
+
+        Map<String, Policy> policies = new HashMap<String, Policy>();
+        policies.put("idle", Policy.EXPIRE_SINCE_CHANGED);
+        policies.put("building", Policy.EVICT_COLD);
+        Map<String, Long> started = Collections.singletonMap("building", now - TimeUnit.HOURS.toMillis(1));
+        // far less than what the repositories take
+        RepositoryExpirationCallable.Summary summary = run(root, data, policies, started, now, 1);
+        assertEquals(0, summary.deleted.size());
+        assertTrue(summary.evicted > 0);
+        assertTrue(summary.cold > 0);
+        assertEquals(changed, idle.lastModified());
+        assertEquals(changed, building.lastModified());
+        assertFalse(new File(idle, ScanIndex.FILE_NAME).exists());
+
+        policies.put("building", Policy.EXPIRE_SINCE_CHANGED);
+        long later = now + TimeUnit.DAYS.toMillis(5);
+        summary = run(root, data, policies, Collections.<String, Long>emptyMap(), later, 0);
+        assertEquals(2, summary.deleted.size());
+        assertFalse(idle.exists());
+        assertFalse(building.exists());
+        // nothing left of them
+        String[] states = new File(data, RepositoryCleaner.STATE).list();
+        assertEquals(0, states == null ? 0 : states.length);
+    }
+
+    @Test
+    public void recentlyChangedRepositoriesAreKept() throws Exception {
+        File root = tmp.newFolder();
+        File data = tmp.newFolder();
+        long now = System.currentTimeMillis();
+        File repo = repository(root, "job", now - TimeUnit.DAYS.toMillis(3));
+
+        RepositoryExpirationCallable.Summary summary = run(root, data,
+            Collections.singletonMap("job", Policy.EXPIRE_SINCE_CHANGED), Collections.<String, Long>emptyMap(),
+            now + TimeUnit.DAYS.toMillis(3), 0);
+        assertEquals(0, summary.deleted.size());
+        assertTrue(repo.isDirectory());
+    }
+
+    private static RepositoryExpirationCallable.Summary run(File root, File data, Map<String, Policy> policies,
+                                                           Map<String, Long> started, long now, long quota)
+            throws Exception {
+        return new RepositoryExpirationCallable(policies, REPOSITORY, data.getPath(),
+            Collections.<String, Policy>emptyMap(), started, true, now, EXPIRATION, quota, false, false, 0,
+            IoThrottle.NONE).invoke(root, null);
+    }
+
+    /**
+     * A repository last changed by a build at the given time, seen by an earlier run already.
+     */
+    private static File repository(File root, String job, long changed) throws IOException {
+        Path repository = new File(root, job + '/' + REPOSITORY).toPath();
+        new SyntheticRepository().artifacts(20).versions(2).snapshotRatio(0).seed(job.hashCode())
+            .generate(repository);
+        Files.createFile(repository.resolve(RepositoryExpirationCallable.MARKER));
+        // downloaded long before the builds started
+        for (Path dir : directories(repository)) {
+            Files.setLastModifiedTime(dir, FileTime.fromMillis(SyntheticRepository.REFERENCE_TIME));
+        }
+        Files.setLastModifiedTime(repository, FileTime.fromMillis(changed));
+        return repository.toFile();
+    }
+
+    private static List<Path> directories(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(Files::isDirectory).collect(Collectors.toList());
+        }
+    }
+}
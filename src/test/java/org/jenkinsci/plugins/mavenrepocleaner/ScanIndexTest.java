@@ -0,0 +1,145 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ScanIndexTest {
+
+    private static final String LOCATION = "/org/acme/lib/1.0";
+    /** Last use of the artifacts, in seconds. */
+    private static final long USED = TimeUnit.MILLISECONDS.toSeconds(SyntheticRepository.REFERENCE_TIME);
+    private static final long MODIFIED = SyntheticRepository.REFERENCE_TIME;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void unchangedUntilTheOldestArtifactExpires() throws IOException {
+        ScanIndex index = saved(entry(MODIFIED, ScanIndex.Entry.UNVERIFIED));
+        ScanIndex.Entry entry = index.get(LOCATION);
+        assertSame(entry, index.unchanged(LOCATION, MODIFIED, USED - 1, false));
+        // artifacts last used at the threshold are kept
+        assertSame(entry, index.unchanged(LOCATION, MODIFIED, USED, false));
+        assertNull(index.unchanged(LOCATION, MODIFIED, USED + 1, false));
+    }
+
+    @Test
+    public void changedWhenTheModificationTimeDiffers() throws IOException {
+        ScanIndex index = saved(entry(MODIFIED, ScanIndex.Entry.UNVERIFIED));
+        assertNull(index.unchanged(LOCATION, MODIFIED + 1, USED, false));
+        assertNull(index.unchanged(LOCATION, MODIFIED - 1, USED, false));
+        assertNull(index.unchanged("/org/acme/lib/2.0", MODIFIED, USED, false));
+    }
+
+    @Test
+    public void notTrustedWhenModifiedCloseToTheScan() throws IOException {
+        long now = System.currentTimeMillis();
+        ScanIndex index = saved(entry(now, ScanIndex.Entry.UNVERIFIED));
+        assertNull(index.unchanged(LOCATION, now, USED, false));
+
+        index = saved(entry(now - TimeUnit.MINUTES.toMillis(1), ScanIndex.Entry.UNVERIFIED));
+        assertNotNull(index.unchanged(LOCATION, now - TimeUnit.MINUTES.toMillis(1), USED, false));
+    }
+
+    @Test
+    public void changedWhenArtifactsAreLeftToVerify() throws IOException {
+        ScanIndex index = saved(entry(MODIFIED, ScanIndex.Entry.UNVERIFIED));
+        assertNull(index.unchanged(LOCATION, MODIFIED, USED, true));
+
+        index = saved(entry(MODIFIED, ScanIndex.Entry.NO_CHECKSUM));
+        assertNotNull(index.unchanged(LOCATION, MODIFIED, USED, true));
+    }
+
+    @Test
+    public void emptyDirectoriesHoldNothingToRemove() throws IOException {
+        ScanIndex index = new ScanIndex();
+        index.put(LOCATION, new ScanIndex.Entry(MODIFIED, 0));
+        index = reloaded(index);
+        assertNotNull(index.unchanged(LOCATION, MODIFIED, Long.MAX_VALUE - 1, false));
+    }
+
+    @Test
+    public void incrementalRunsOnlyWalkWhatChanged() throws IOException {
+        Path repository = tmp.newFolder().toPath();
+        new SyntheticRepository().artifacts(50).versions(2).snapshotRatio(0).seed(42).generate(repository);
+        // as left long before the first scan
+        List<Path> directories = directories(repository);
+        for (Path dir : directories) {
+            Files.setLastModifiedTime(dir, FileTime.fromMillis(MODIFIED));
+        }
+        long dayBefore = SyntheticRepository.REFERENCE_TIME - TimeUnit.DAYS.toMillis(1);
+
+        CleanupResult first = clean(repository, dayBefore);
+        assertTrue(first.getArtifacts() > 0);
+
+        CleanupResult second = clean(repository, dayBefore);
+        assertEquals(0, second.getArtifacts());
+        assertTrue(second.getFilesVisited() < first.getFilesVisited());
+
+        // a download into a version directory has it walked again
+        Path version = repository.resolve("org/s0/g0/artifact0/1.0");
+        if (!Files.isDirectory(version)) version = repository.resolve("org/s0/g0/artifact0/1.1");
+        Files.setLastModifiedTime(version, FileTime.fromMillis(MODIFIED + 1000));
+        CleanupResult third = clean(repository, dayBefore);
+        assertEquals(0, third.getArtifacts());
+        assertEquals(second.getFilesVisited() + version.toFile().list().length, third.getFilesVisited());
+
+        // past the last use of what is left, everything is looked at and removed
+        CleanupResult later = clean(repository, SyntheticRepository.REFERENCE_TIME + TimeUnit.DAYS.toMillis(1));
+        // a jar and a POM per version
+        assertEquals(50 * 2 * 2 - first.getArtifacts(), later.getArtifacts());
+    }
+
+    private static ScanIndex.Entry entry(long modified, long verified) {
+        ScanIndex.Entry entry = new ScanIndex.Entry(modified, 2);
+        entry.add("lib-1.0.jar", USED, 1024, verified);
+        entry.add("lib-1.0.pom", USED + 60, 128, ScanIndex.Entry.NO_CHECKSUM);
+        return entry;
+    }
+
+    private ScanIndex saved(ScanIndex.Entry entry) throws IOException {
+        ScanIndex index = new ScanIndex();
+        index.put(LOCATION, entry);
+        return reloaded(index);
+    }
+
+    /**
+     * The index as the next scan reads it, along with the time it was written at.
+     */
+    private ScanIndex reloaded(ScanIndex index) throws IOException {
+        File repository = tmp.newFolder();
+        index.save(repository);
+        return ScanIndex.load(repository);
+    }
+
+    private static CleanupResult clean(Path repository, long olderThan) throws IOException {
+        RepositoryCleaner cleaner = new RepositoryCleaner(olderThan);
+        cleaner.setEngine(RepositoryCleaner.Engine.NIO);
+        cleaner.setParallelism(1);
+        cleaner.setIncremental(true);
+        return cleaner.cleanup(repository.toFile());
+    }
+
+    private static List<Path> directories(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(Files::isDirectory).collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotRetentionTest {
+
+    private static final String PREFIX = "lib-1.0-";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void parsesTimestampBuildNumberAndSuffix() {
+        SnapshotRetention.Build build = SnapshotRetention.Build.parse("lib-1.0-20231114.221320-12.jar", PREFIX);
+        assertEquals("lib-1.0-20231114.221320-12.jar", build.name);
+        assertEquals("20231114.221320", build.timestamp);
+        assertEquals(12, build.buildNumber);
+        assertEquals(".jar", build.suffix);
+    }
+
+    @Test
+    public void classifiersArePartOfTheSuffix() {
+        assertEquals("-sources.jar", SnapshotRetention.Build.parse("lib-1.0-20231114.221320-1-sources.jar", PREFIX).suffix);
+        assertEquals("-tests.jar", SnapshotRetention.Build.parse("lib-1.0-20231114.221320-1-tests.jar", PREFIX).suffix);
+        assertEquals(".tar.gz", SnapshotRetention.Build.parse("lib-1.0-20231114.221320-1.tar.gz", PREFIX).suffix);
+    }
+
+    @Test
+    public void timestampsWithoutABuildNumberAreNotBuilds() {
+        assertNull(SnapshotRetention.Build.parse("lib-1.0-20231114.221320.jar", PREFIX));
+        assertNull(SnapshotRetention.Build.parse("lib-1.0-20231114.221320-.jar", PREFIX));
+        assertNull(SnapshotRetention.Build.parse("lib-1.0-20231114.221320-1", PREFIX));
+        assertNull(SnapshotRetention.Build.parse("lib-1.0-20231114.221320-1x.jar", PREFIX));
+    }
+
+    @Test
+    public void otherFilesAreNotBuilds() {
+        assertNull(SnapshotRetention.Build.parse("lib-1.0-SNAPSHOT.jar", PREFIX));
+        assertNull(SnapshotRetention.Build.parse("lib-1.0-20231114.221320-1.jar.sha1", PREFIX));
+        assertNull(SnapshotRetention.Build.parse("lib-1.0-20231114.221320-1.jar.md5", PREFIX));
+        assertNull(SnapshotRetention.Build.parse("other-1.0-20231114.221320-1.jar", PREFIX));
+        assertNull(SnapshotRetention.Build.parse("maven-metadata-central.xml", PREFIX));
+    }
+
+    @Test
+    public void latestBuildsComeFirst() {
+        List<SnapshotRetention.Build> builds = new ArrayList<SnapshotRetention.Build>(Arrays.asList(
+            SnapshotRetention.Build.parse("lib-1.0-20231114.221320-2.jar", PREFIX),
+            SnapshotRetention.Build.parse("lib-1.0-20231115.080000-3.jar", PREFIX),
+            SnapshotRetention.Build.parse("lib-1.0-20231114.221320-10.jar", PREFIX),
+            SnapshotRetention.Build.parse("lib-1.0-20231113.120000-1.jar", PREFIX)));
+        builds.sort(null);
+        List<Integer> buildNumbers = new ArrayList<Integer>();
+        for (SnapshotRetention.Build build : builds) {
+            buildNumbers.add(build.buildNumber);
+        }
+        assertEquals(Arrays.asList(3, 10, 2, 1), buildNumbers);
+    }
+
+    @Test
+    public void keepsTheLatestBuildsOfEachClassifier() throws IOException {
+        Path repository = tmp.newFolder().toPath();
+        new SyntheticRepository().artifacts(10).versions(1).snapshotRatio(1).staleRatio(0).metadata(false).seed(42)
+            .generate(repository);
+        Path version = repository.resolve("org/s0/g0/artifact0/1.0-SNAPSHOT");
+        // artifact0-1.0-20231114.221320-1.jar and .pom were generated
+        Path build2 = write(version.resolve("artifact0-1.0-20231114.221320-2.jar"));
+        Path build3 = write(version.resolve("artifact0-1.0-20231114.221320-3.jar"));
+        Path sources = write(version.resolve("artifact0-1.0-20231114.221320-1-sources.jar"));
+        Path installed = write(version.resolve("artifact0-1.0-SNAPSHOT.jar"));
+
+        RepositoryCleaner cleaner = new RepositoryCleaner(0);
+        cleaner.setEngine(RepositoryCleaner.Engine.NIO);
+        cleaner.setSnapshotRetention(2);
+        CleanupResult result = cleaner.cleanup(repository.toFile());
+
+        assertEquals(1, result.getArtifacts());
+        assertFalse(Files.exists(version.resolve("artifact0-1.0-20231114.221320-1.jar")));
+        assertFalse(Files.exists(version.resolve("artifact0-1.0-20231114.221320-1.jar.sha1")));
+        assertTrue(Files.exists(version.resolve("artifact0-1.0-20231114.221320-1.pom")));
+        assertTrue(Files.exists(build2));
+        assertTrue(Files.exists(build3));
+        assertTrue(Files.exists(sources));
+        assertTrue(Files.exists(installed));
+    }
+
+    private static Path write(Path file) throws IOException {
+        Files.write(file, new byte[16]);
+        Files.setAttribute(file, "lastAccessTime", FileTime.fromMillis(SyntheticRepository.REFERENCE_TIME));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(SyntheticRepository.REFERENCE_TIME));
+        return file;
+    }
+}
@@ -0,0 +1,188 @@
+package org.jenkinsci.plugins.mavenrepocleaner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates local Maven repositories that look like the ones builds leave behind, deterministically for a given
+ * seed, with explicit access and modification times so that the outcome of a clean up doesn't depend on the
+ * clock or on the <tt>atime</tt> mount options of the filesystem.
+ * <p>
+ * Every artifact gets a POM and a jar in each of its versions, released or snapshot, optionally with their
+ * <tt>.sha1</tt>/<tt>.md5</tt> files and a <tt>maven-metadata.xml</tt> per artifactId. Stale artifacts are last
+ * accessed {@link #STALE_AGE_DAYS} days before {@link #REFERENCE_TIME}, the others at that time.
+ */
+public class SyntheticRepository {
+
+    /**
+     * Fixed "now" of generated repositories.
+     */
+    public static final long REFERENCE_TIME = 1700000000000L;
+
+    public static final int STALE_AGE_DAYS = 30;
+
+    private int groupDepth = 3;
+    private int artifacts = 1000;
+    private int versions = 2;
+    private double snapshotRatio = 0.2;
+    private double staleRatio = 0.5;
+    private boolean checksums = true;
+    private boolean metadata = true;
+    private int artifactSize = 1024;
+    private long seed = 42;
+
+    /**
+     * Number of path segments of groupIds, at least 1.
+     */
+    public SyntheticRepository groupDepth(int groupDepth) {
+        this.groupDepth = Math.max(1, groupDepth);
+        return this;
+    }
+
+    /**
+     * Number of artifactIds.
+     */
+    public SyntheticRepository artifacts(int artifacts) {
+        this.artifacts = artifacts;
+        return this;
+    }
+
+    /**
+     * Number of versions of each artifactId.
+     */
+    public SyntheticRepository versions(int versions) {
+        this.versions = Math.max(1, versions);
+        return this;
+    }
+
+    /**
+     * Share of versions that are snapshots.
+     */
+    public SyntheticRepository snapshotRatio(double snapshotRatio) {
+        this.snapshotRatio = snapshotRatio;
+        return this;
+    }
+
+    /**
+     * Share of artifacts old enough to be removed.
+     */
+    public SyntheticRepository staleRatio(double staleRatio) {
+        this.staleRatio = staleRatio;
+        return this;
+    }
+
+    public SyntheticRepository checksums(boolean checksums) {
+        this.checksums = checksums;
+        return this;
+    }
+
+    public SyntheticRepository metadata(boolean metadata) {
+        this.metadata = metadata;
+        return this;
+    }
+
+    /**
+     * Size of jars, in bytes.
+     */
+    public SyntheticRepository artifactSize(int artifactSize) {
+        this.artifactSize = artifactSize;
+        return this;
+    }
+
+    public SyntheticRepository seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Writes the repository.
+     *
+     * @param root directory to generate the repository in, created if needed
+     * @return the number of files written
+     */
+    public int generate(Path root) throws IOException {
+        Random random = new Random(seed);
+        byte[] content = new byte[artifactSize];
+        int files = 0;
+        // about ten artifactIds per groupId, like most real-world groupIds
+        int groups = Math.max(1, artifacts / 10);
+        for (int a = 0; a < artifacts; a++) {
+            int group = a % groups;
+            StringBuilder groupPath = new StringBuilder("org");
+            for (int d = 1; d < groupDepth; d++) {
+                groupPath.append('/').append(d == groupDepth - 1 ? "g" + group : "s" + (group % (d * 7 + 3)));
+            }
+            String artifactId = "artifact" + a;
+            Path artifactDir = root.resolve(groupPath.toString()).resolve(artifactId);
+
+            StringBuilder versionList = new StringBuilder();
+            for (int v = 0; v < versions; v++) {
+                boolean snapshot = random.nextDouble() < snapshotRatio;
+                String version = "1." + v + (snapshot ? "-SNAPSHOT" : "");
+                String fileVersion = snapshot ? "1." + v + "-20231114.221320-" + (v + 1) : version;
+                versionList.append("      <version>").append(version).append("</version>\n");
+
+                Path versionDir = Files.createDirectories(artifactDir.resolve(version));
+                long lastUse = random.nextDouble() < staleRatio
+                    ? REFERENCE_TIME - TimeUnit.DAYS.toMillis(STALE_AGE_DAYS) : REFERENCE_TIME;
+
+                random.nextBytes(content);
+                files += write(versionDir.resolve(artifactId + '-' + fileVersion + ".jar"), content, lastUse);
+                files += write(versionDir.resolve(artifactId + '-' + fileVersion + ".pom"),
+                    pom(groupPath.toString().replace('/', '.'), artifactId, version), lastUse);
+                files += write(versionDir.resolve("_remote.repositories"),
+                    ("#NOTE: This is a Maven Resolver internal implementation file\n" + artifactId + '-' + fileVersion
+                        + ".jar>central=\n").getBytes(StandardCharsets.UTF_8), lastUse);
+                if (snapshot && metadata) {
+                    files += write(versionDir.resolve("maven-metadata.xml"),
+                        metadata(groupPath.toString().replace('/', '.'), artifactId, "      <version>" + version
+                            + "</version>\n"), lastUse);
+                }
+            }
+            if (metadata) {
+                files += write(artifactDir.resolve("maven-metadata.xml"),
+                    metadata(groupPath.toString().replace('/', '.'), artifactId, versionList.toString()),
+                    REFERENCE_TIME);
+            }
+        }
+        return files;
+    }
+
+    private int write(Path file, byte[] content, long time) throws IOException {
+        Files.write(file, content);
+        touch(file, time);
+        if (!checksums || file.getFileName().toString().startsWith("_")) return 1;
+
+        // not the real digests, the cleaner never reads them
+        String digest = Long.toHexString(seed ^ file.hashCode());
+        touch(Files.write(file.resolveSibling(file.getFileName() + ".sha1"),
+            digest.getBytes(StandardCharsets.US_ASCII)), time);
+        touch(Files.write(file.resolveSibling(file.getFileName() + ".md5"),
+            digest.getBytes(StandardCharsets.US_ASCII)), time);
+        return 3;
+    }
+
+    private static Path touch(Path file, long time) throws IOException {
+        FileTime fileTime = FileTime.fromMillis(time);
+        Files.getFileAttributeView(file, BasicFileAttributeView.class).setTimes(fileTime, fileTime, null);
+        return file;
+    }
+
+    private static byte[] pom(String groupId, String artifactId, String version) {
+        return ("<project>\n  <modelVersion>4.0.0</modelVersion>\n  <groupId>" + groupId + "</groupId>\n  <artifactId>"
+            + artifactId + "</artifactId>\n  <version>" + version + "</version>\n</project>\n")
+            .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] metadata(String groupId, String artifactId, String versions) {
+        return ("<metadata>\n  <groupId>" + groupId + "</groupId>\n  <artifactId>" + artifactId
+            + "</artifactId>\n  <versioning>\n    <versions>\n" + versions + "    </versions>\n  </versioning>\n"
+            + "</metadata>\n").getBytes(StandardCharsets.UTF_8);
+    }
+}